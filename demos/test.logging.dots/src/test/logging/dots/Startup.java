@@ -3,6 +3,7 @@ package test.logging.dots;
 import lotus.domino.NotesException;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.openntf.base.logback.buffer.UnitOfWork;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,11 +20,17 @@ public class Startup extends AbstractServerTaskExt {
 	
 	@Override
 	protected void doRun(RunWhen runWhen, IProgressMonitor monitor) throws NotesException {
-		logger.trace("Trace Test");
-		logger.debug("Debug Test");
-		logger.info("Info Test");
-		logger.warn("Warn Test");
-		logger.error("Error Test", new Throwable("error message"));
+		// With Xlb_BufferLevel=TRACE, trace and debug lines are written only because of the error.
+		UnitOfWork.begin();
+		try {
+			logger.trace("Trace Test");
+			logger.debug("Debug Test");
+			logger.info("Info Test");
+			logger.warn("Warn Test");
+			logger.error("Error Test", new Throwable("error message"));
+		} finally {
+			UnitOfWork.end();
+		}
 	}
 
 }
@@ -0,0 +1,62 @@
+package org.openntf.base.logback.xsp;
+
+import java.util.Map;
+
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+
+import org.openntf.base.logback.core.RequestMdc;
+
+import com.ibm.xsp.context.FacesContextEx;
+import com.ibm.xsp.event.FacesContextListener;
+
+/**
+ * Fills the MDC with the application (NSF path), user, request id and page at the start of each XPages
+ * request and clears it at the end. Values come from the servlet request, no Domino calls are needed.
+ * 
+ * The MDC is cleared when the faces context is released, so a phase throwing an exception doesn't leave 
+ * the values on the thread.
+ */
+public class MdcPhaseListener implements PhaseListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final FacesContextListener REQUEST_END = new FacesContextListener() {
+		public void beforeContextReleased(FacesContext context) {
+			RequestMdc.end();
+		}
+
+		public void beforeRenderingPhase(FacesContext context) {
+		}
+	};
+
+	public PhaseId getPhaseId() {
+		return PhaseId.RESTORE_VIEW;
+	}
+
+	public void beforePhase(PhaseEvent event) {
+		FacesContext facesContext = event.getFacesContext();
+		ExternalContext context = facesContext.getExternalContext();
+
+		String app = context.getRequestContextPath();
+		if(app != null && app.startsWith("/")) {
+			app = app.substring(1);
+		}
+
+		Map<?, ?> headers = context.getRequestHeaderMap();
+		String requestId = (String) headers.get(RequestMdc.REQUEST_ID_HEADER);
+
+		RequestMdc.begin(app, context.getRemoteUser(), requestId, context.getRequestServletPath());
+
+		if(facesContext instanceof FacesContextEx) {
+			((FacesContextEx) facesContext).addRequestListener(REQUEST_END);
+		}
+	}
+
+	public void afterPhase(PhaseEvent event) {
+	}
+
+}
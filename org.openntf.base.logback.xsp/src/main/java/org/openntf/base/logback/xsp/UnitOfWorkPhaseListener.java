@@ -0,0 +1,75 @@
+package org.openntf.base.logback.xsp;
+
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+
+import org.openntf.base.logback.buffer.UnitOfWork;
+
+import com.ibm.xsp.context.FacesContextEx;
+import com.ibm.xsp.event.FacesContextListener;
+
+/**
+ * Each XPages request is a {@link UnitOfWork}. Events below the logger level are written only if the 
+ * request logs an error.
+ * 
+ * If a phase throws an exception, the lifecycle doesn't reach its end. The unit is then flushed as failed 
+ * when the faces context is released.
+ * 
+ * Nothing is done unless buffering is enabled.
+ */
+public class UnitOfWorkPhaseListener implements PhaseListener {
+
+	private static final long serialVersionUID = 1L;
+
+	public PhaseId getPhaseId() {
+		return PhaseId.ANY_PHASE;
+	}
+
+	public void beforePhase(PhaseEvent event) {
+		if(event.getPhaseId() == PhaseId.RESTORE_VIEW && UnitOfWork.isEnabled()) {
+			UnitOfWork.beginFresh();
+
+			FacesContext context = event.getFacesContext();
+			if(context instanceof FacesContextEx) {
+				((FacesContextEx) context).addRequestListener(new RequestEnd(UnitOfWork.getCurrent()));
+			}
+		}
+	}
+
+	public void afterPhase(PhaseEvent event) {
+		if(UnitOfWork.getCurrent() == null) {
+			return;
+		}
+
+		if(event.getPhaseId() == PhaseId.RENDER_RESPONSE || event.getFacesContext().getResponseComplete()) {
+			UnitOfWork.end();
+		}
+	}
+
+	/**
+	 * Called when the request ends, also after an exception. A unit still open has not reached the end of
+	 * the lifecycle.
+	 */
+	private static class RequestEnd implements FacesContextListener {
+
+		private final UnitOfWork unit;
+
+		RequestEnd(UnitOfWork unit) {
+			this.unit = unit;
+		}
+
+		public void beforeContextReleased(FacesContext context) {
+			if(unit != null && UnitOfWork.getCurrent() == unit) {
+				UnitOfWork.fail();
+				UnitOfWork.end();
+			}
+		}
+
+		public void beforeRenderingPhase(FacesContext context) {
+		}
+
+	}
+
+}
@@ -6,12 +6,14 @@ import com.ibm.xsp.library.AbstractXspLibrary;
 
 public class XlbLibrary extends AbstractXspLibrary {
 
+	public static final String LIBRARY_ID = XspPlugin.class.getPackage().getName()+".library";
+
 	public XlbLibrary() {
 	}
 		
 	@Override
 	public String getLibraryId() {
-		return XspPlugin.class.getPackage().getName()+".library";
+		return LIBRARY_ID;
 	}
 
 	@Override
@@ -0,0 +1,107 @@
+package org.openntf.base.logback.xsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.openntf.base.logback.xsp.client.ClientLogServlet;
+import org.openntf.base.logback.xsp.status.StatusServlet;
+
+import com.ibm.designer.runtime.domino.adapter.ComponentModule;
+import com.ibm.designer.runtime.domino.adapter.IServletFactory;
+import com.ibm.designer.runtime.domino.adapter.ServletMatch;
+
+/**
+ * Maps the XLogback servlets into each database using the {@link XlbLibrary}: <code>/xsp/.xlblog</code> to the 
+ * {@link ClientLogServlet} and <code>/xsp/.xlbstatus</code> to the {@link StatusServlet}. Servlets are created 
+ * on the first request.
+ */
+public class XlbServletFactory implements IServletFactory {
+
+	public static final String CLIENTLOG_PATH = "/xsp/.xlblog";
+	public static final String STATUS_PATH = "/xsp/.xlbstatus";
+
+	private static final String XSP_PROPERTIES = "/WEB-INF/xsp.properties";
+	private static final String LIBRARY_DEPENDS = "xsp.library.depends";
+
+	private ComponentModule module;
+	private Servlet clientLogServlet;
+	private Servlet statusServlet;
+	private Boolean usesLibrary;
+
+	public void init(ComponentModule module) {
+		this.module = module;
+	}
+
+	public ServletMatch getServletMatch(String contextPath, String path) throws ServletException {
+		if(! path.startsWith("/xsp/.xlb") || ! usesLibrary()) {
+			return null;
+		}
+		if(matches(path, CLIENTLOG_PATH)) {
+			return new ServletMatch(getClientLogServlet(), CLIENTLOG_PATH, path.substring(CLIENTLOG_PATH.length()));
+		}
+		if(matches(path, STATUS_PATH)) {
+			return new ServletMatch(getStatusServlet(), STATUS_PATH, path.substring(STATUS_PATH.length()));
+		}
+		return null;
+	}
+
+	/**
+	 * The module is created again when the design changes, so the dependency is read once.
+	 */
+	private synchronized boolean usesLibrary() {
+		if(usesLibrary == null) {
+			usesLibrary = Boolean.valueOf(readUsesLibrary());
+		}
+		return usesLibrary.booleanValue();
+	}
+
+	private boolean readUsesLibrary() {
+		InputStream in = module.getResourceAsStream(XSP_PROPERTIES);
+		if(in == null) {
+			return false;
+		}
+
+		Properties properties = new Properties();
+		try {
+			properties.load(in);
+		} catch(IOException e) {
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch(IOException e) {
+				// Nothing to do
+			}
+		}
+
+		for(String library : properties.getProperty(LIBRARY_DEPENDS, "").split(",")) {
+			if(XlbLibrary.LIBRARY_ID.equals(library.trim())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String path, String servletPath) {
+		return path.startsWith(servletPath) && (path.length() == servletPath.length() || path.charAt(servletPath.length()) == '/');
+	}
+
+	private synchronized Servlet getClientLogServlet() throws ServletException {
+		if(clientLogServlet == null) {
+			clientLogServlet = module.createServlet(new ClientLogServlet(), "XLogback Client Log", null);
+		}
+		return clientLogServlet;
+	}
+
+	private synchronized Servlet getStatusServlet() throws ServletException {
+		if(statusServlet == null) {
+			statusServlet = module.createServlet(new StatusServlet(), "XLogback Status", null);
+		}
+		return statusServlet;
+	}
+
+}
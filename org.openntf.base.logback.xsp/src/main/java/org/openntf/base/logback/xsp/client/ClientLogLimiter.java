@@ -0,0 +1,67 @@
+package org.openntf.base.logback.xsp.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets for client log events, one per session (or remote address without a session). Buckets are
+ * kept in a bounded LRU map, so a flood of new sessions cannot grow it.
+ */
+class ClientLogLimiter {
+
+	private static final int MAX_CLIENTS = 2000;
+
+	private final double tokensPerMilli;
+	private final int burst;
+
+	private final Map<String, Bucket> buckets = new LinkedHashMap<String, Bucket>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+			return size() > MAX_CLIENTS;
+		}
+	};
+
+	/**
+	 * @param ratePerMinute events refilled per minute
+	 * @param burst maximum events accepted at once
+	 */
+	ClientLogLimiter(int ratePerMinute, int burst) {
+		this.tokensPerMilli = ratePerMinute / 60000.0;
+		this.burst = Math.max(1, burst);
+	}
+
+	/**
+	 * Takes one token from the client's bucket.
+	 *
+	 * @return false if the client is over its limit.
+	 */
+	synchronized boolean tryAcquire(String client, long now) {
+		Bucket bucket = buckets.get(client);
+
+		if(bucket == null) {
+			bucket = new Bucket(burst, now);
+			buckets.put(client, bucket);
+		} else {
+			bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * tokensPerMilli);
+			bucket.updated = now;
+		}
+
+		if(bucket.tokens < 1) return false;
+
+		bucket.tokens--;
+		return true;
+	}
+
+	private static class Bucket {
+		double tokens;
+		long updated;
+
+		Bucket(double tokens, long updated) {
+			this.tokens = tokens;
+			this.updated = updated;
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package org.openntf.base.logback.xsp.client;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.openntf.base.logback.core.RequestMdc;
+import org.slf4j.Logger;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Receives event batches from <code>xlb-logger.js</code> and logs them with the
+ * <code>org.openntf.base.logback.xsp.client</code> logger and the XLB_CLIENT marker. The request fills the
+ * MDC like an XPages request; the client logger name and page are added per event.
+ *
+ * A batch is UTF-8 text, optionally gzipped. The first line is <code>XLB1</code>, each further line is one
+ * event with tab separated fields: level, client time, logger, page, message and stack. Tabs, line breaks
+ * and backslashes in fields are escaped with a backslash. Lines are read one by one, the body is never
+ * held in memory as a whole.
+ *
+ * The compressed and the uncompressed size are limited by <code>Xlb_XspClientLogMaxBytes</code>. Each
+ * session (or remote address without a session) gets a token bucket of <code>Xlb_XspClientLogBurst</code>
+ * events, refilled by <code>Xlb_XspClientLogRate</code> per minute. A client over its limit gets 429 and
+ * the rest of its batch is not read.
+ *
+ * Anonymous users are refused unless <code>Xlb_XspClientLogAnonymous=1</code>.
+ */
+public class ClientLogServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String LOGGER_NAME = "org.openntf.base.logback.xsp.client";
+	public static final Marker MARKER = MarkerFactory.getMarker("XLB_CLIENT");
+	public static final String KEY_CLIENT_LOGGER = "clientLogger";
+
+	static final String SCRIPT_PATH = "/xlb-logger.js";
+	static final String BATCH_HEADER = "XLB1";
+
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	private static final String RETRY_AFTER = "60";
+
+	private static final int MAX_EVENTS = 500;
+	private static final int MAX_NAME_LENGTH = 100;
+	private static final int MAX_PAGE_LENGTH = 200;
+	private static final int MAX_MESSAGE_LENGTH = 4000;
+	private static final int MAX_STACK_LENGTH = 8000;
+	private static final String DEFAULT_LOGGER = "default";
+
+	private static final Logger logger = DominoContextSelector.getDefaultLogger(LOGGER_NAME);
+
+	private static final boolean enabled = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_CLIENTLOG, 0) == 1;
+	private static final boolean anonymous = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_CLIENTLOGANONYMOUS, 0) == 1;
+	private static final int maxBytes = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_CLIENTLOGMAXBYTES, 65536);
+	private static final ClientLogLimiter limiter = new ClientLogLimiter(
+			LogSettings.getIntegerValue(LogSettings.SETTING_XSP_CLIENTLOGRATE, 60),
+			LogSettings.getIntegerValue(LogSettings.SETTING_XSP_CLIENTLOGBURST, 50));
+
+	private static volatile byte[] script;
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if(!SCRIPT_PATH.equals(request.getPathInfo())) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		byte[] content = getScript();
+
+		response.setContentType("application/javascript; charset=UTF-8");
+		response.setHeader("Cache-Control", "max-age=86400");
+		response.setContentLength(content.length);
+		response.getOutputStream().write(content);
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if(!enabled) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String user = request.getRemoteUser();
+		if(!anonymous && (user == null || "Anonymous".equalsIgnoreCase(user))) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		if(request.getContentLength() > maxBytes) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+
+		String app = request.getContextPath();
+		if(app != null && app.startsWith("/")) {
+			app = app.substring(1);
+		}
+
+		RequestMdc.begin(app, user, request.getHeader(RequestMdc.REQUEST_ID_HEADER), null);
+		try {
+			int status = readBatch(request);
+			if(status == SC_TOO_MANY_REQUESTS) {
+				response.setHeader("Retry-After", RETRY_AFTER);
+			}
+			if(status == HttpServletResponse.SC_NO_CONTENT) {
+				response.setStatus(status);
+			} else {
+				response.sendError(status);
+			}
+		} catch(PayloadTooLargeException e) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+		} finally {
+			MDC.remove(KEY_CLIENT_LOGGER);
+			RequestMdc.end();
+		}
+	}
+
+	private int readBatch(HttpServletRequest request) throws IOException {
+		InputStream in = new LimitedInputStream(request.getInputStream(), maxBytes);
+		if("gzip".equalsIgnoreCase(request.getHeader("Content-Encoding"))) {
+			in = new LimitedInputStream(new GZIPInputStream(in), maxBytes);
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			if(!BATCH_HEADER.equals(reader.readLine())) {
+				return HttpServletResponse.SC_BAD_REQUEST;
+			}
+
+			String client = getClientKey(request);
+			int count = 0;
+			String line;
+
+			while((line = reader.readLine()) != null) {
+				if(line.length() == 0) continue;
+
+				if(++count > MAX_EVENTS) {
+					return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+				}
+				if(!limiter.tryAcquire(client, System.currentTimeMillis())) {
+					return SC_TOO_MANY_REQUESTS;
+				}
+
+				logEvent(parseLine(line));
+			}
+		} finally {
+			reader.close();
+		}
+
+		return HttpServletResponse.SC_NO_CONTENT;
+	}
+
+	private void logEvent(String[] fields) {
+		String level = fields[0];
+		String name = fields[2];
+		if(!isValidName(name)) {
+			name = DEFAULT_LOGGER;
+		}
+
+		String message = truncate(fields[4], MAX_MESSAGE_LENGTH);
+		if(fields[5].length() > 0) {
+			message = message + "\n" + truncate(fields[5], MAX_STACK_LENGTH);
+		}
+
+		MDC.put(KEY_CLIENT_LOGGER, name);
+		MDC.put(RequestMdc.KEY_PAGE, truncate(fields[3], MAX_PAGE_LENGTH));
+
+		if("ERROR".equals(level)) {
+			logger.error(MARKER, "{}", message);
+		} else if("WARN".equals(level)) {
+			logger.warn(MARKER, "{}", message);
+		} else if("INFO".equals(level)) {
+			logger.info(MARKER, "{}", message);
+		} else if("DEBUG".equals(level)) {
+			logger.debug(MARKER, "{}", message);
+		} else {
+			logger.trace(MARKER, "{}", message);
+		}
+	}
+
+	/**
+	 * Splits an event line into its six fields and removes the escaping. Missing fields are empty.
+	 */
+	static String[] parseLine(String line) {
+		String[] fields = new String[] { "", "", "", "", "", "" };
+		StringBuilder field = new StringBuilder();
+		int index = 0;
+
+		for(int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+
+			if(c == '\t') {
+				fields[index] = field.toString();
+				field.setLength(0);
+				if(++index == fields.length) return fields;
+			} else if(c == '\\' && i + 1 < line.length()) {
+				char next = line.charAt(++i);
+				field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+			} else {
+				field.append(c);
+			}
+		}
+
+		fields[index] = field.toString();
+		return fields;
+	}
+
+	private static boolean isValidName(String name) {
+		if(name.length() == 0 || name.length() > MAX_NAME_LENGTH) return false;
+
+		for(int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if(!Character.isLetterOrDigit(c) && c != '.' && c != '_' && c != '-' && c != '$') return false;
+		}
+
+		return true;
+	}
+
+	private static String truncate(String value, int maxLength) {
+		return value.length() > maxLength ? value.substring(0, maxLength) + "..." : value;
+	}
+
+	private static String getClientKey(HttpServletRequest request) {
+		HttpSession session = request.getSession(false);
+		return session != null ? "s:" + session.getId() : "a:" + request.getRemoteAddr();
+	}
+
+	private static byte[] getScript() throws IOException {
+		byte[] content = script;
+
+		if(content == null) {
+			InputStream in = ClientLogServlet.class.getResourceAsStream("xlb-logger.js");
+			if(in == null) {
+				throw new IOException("xlb-logger.js not found");
+			}
+
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				content = script = out.toByteArray();
+			} finally {
+				in.close();
+			}
+		}
+
+		return content;
+	}
+
+	private static class PayloadTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Fails once more than the given number of bytes are read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b != -1 && --remaining < 0) throw new PayloadTooLargeException();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0 && (remaining -= read) < 0) throw new PayloadTooLargeException();
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if((remaining -= skipped) < 0) throw new PayloadTooLargeException();
+			return skipped;
+		}
+
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * XLogback client logger. Buffers log events in the browser and posts them in batches to the XLogback
+ * servlet of the current database. Uncaught errors are logged automatically.
+ *
+ *   XLogback.getLogger("orders").warn("Order not found", error);
+ *   XLogback.configure({ level: "DEBUG" });
+ *
+ * A batch is sent when it is full, after flushDelay, at once for errors and when the page is hidden.
+ * Batches are gzipped where the browser supports it. If the server refuses events, sending pauses.
+ */
+var XLogback = XLogback || (function(window, document) {
+
+	var BATCH_HEADER = "XLB1";
+	var LEVELS = { TRACE: 0, DEBUG: 1, INFO: 2, WARN: 3, ERROR: 4 };
+	var BACKOFF = 60000;
+	var GZIP_MIN_LENGTH = 1024;
+
+	var config = {
+		level: "INFO",
+		batchSize: 50,
+		maxBuffer: 200,
+		flushDelay: 5000
+	};
+
+	var url = getUrl();
+	var buffer = [];
+	var dropped = 0;
+	var timer = null;
+	var sending = false;
+	var disabled = false;
+	var pausedUntil = 0;
+	var loggers = {};
+
+	function getUrl() {
+		var scripts = document.getElementsByTagName("script");
+		var script = document.currentScript || scripts[scripts.length - 1];
+		var match = script && /^(.*\/xsp\/\.xlblog)\/xlb-logger\.js/.exec(script.src);
+		if(match) return match[1];
+
+		match = /^(.*?\.nsf)/i.exec(window.location.pathname);
+		return (match ? match[1] : "") + "/xsp/.xlblog";
+	}
+
+	function escape(value) {
+		return String(value == null ? "" : value)
+			.replace(/\\/g, "\\\\")
+			.replace(/\t/g, "\\t")
+			.replace(/\r\n|\r|\n/g, "\\n");
+	}
+
+	function format(level, name, message, stack) {
+		var page = window.location.pathname.replace(/^.*?\.nsf/i, "");
+		return [level, new Date().getTime(), name, page, message, stack].map(escape).join("\t");
+	}
+
+	function log(level, name, message, error) {
+		if(disabled || LEVELS[level] < LEVELS[config.level]) return;
+
+		if(buffer.length >= config.maxBuffer) {
+			buffer.shift();
+			dropped++;
+		}
+
+		var stack = error ? (error.stack || String(error)) : "";
+		buffer.push(format(level, name, message, stack));
+
+		if(level == "ERROR" || buffer.length >= config.batchSize) {
+			schedule(0);
+		} else if(!timer) {
+			schedule(config.flushDelay);
+		}
+	}
+
+	function schedule(delay) {
+		if(timer) clearTimeout(timer);
+		timer = setTimeout(function() { flush(false); }, delay);
+	}
+
+	function flush(unloading) {
+		if(timer) {
+			clearTimeout(timer);
+			timer = null;
+		}
+		if(disabled || sending || !buffer.length) return;
+
+		var now = new Date().getTime();
+		if(now < pausedUntil) {
+			if(!unloading) schedule(pausedUntil - now);
+			return;
+		}
+
+		var lines = buffer.splice(0, config.batchSize);
+		if(dropped) {
+			lines.push(format("WARN", "xlb", dropped + " events were dropped in the browser", ""));
+			dropped = 0;
+		}
+
+		var body = BATCH_HEADER + "\n" + lines.join("\n") + "\n";
+
+		if(unloading && window.navigator.sendBeacon) {
+			window.navigator.sendBeacon(url, body);
+			return;
+		}
+
+		sending = true;
+		compress(body, post);
+	}
+
+	function compress(body, callback) {
+		if(body.length < GZIP_MIN_LENGTH || !window.CompressionStream || !window.Response || !window.Blob) {
+			callback(body, false);
+			return;
+		}
+
+		try {
+			var stream = new window.Blob([body]).stream().pipeThrough(new window.CompressionStream("gzip"));
+			new window.Response(stream).arrayBuffer().then(
+				function(data) { callback(data, true); },
+				function() { callback(body, false); });
+		} catch(e) {
+			callback(body, false);
+		}
+	}
+
+	function post(data, gzip) {
+		var xhr = new XMLHttpRequest();
+		xhr.open("POST", url, true);
+		xhr.setRequestHeader("Content-Type", "text/plain; charset=UTF-8");
+		if(gzip) xhr.setRequestHeader("Content-Encoding", "gzip");
+
+		xhr.onreadystatechange = function() {
+			if(xhr.readyState != 4) return;
+			sending = false;
+
+			if(xhr.status == 403 || xhr.status == 404) {
+				disabled = true;
+				buffer = [];
+				return;
+			}
+			if(xhr.status == 0 || xhr.status == 429 || xhr.status >= 500) {
+				pausedUntil = new Date().getTime() + BACKOFF;
+			}
+			if(buffer.length) schedule(config.flushDelay);
+		};
+
+		xhr.send(data);
+	}
+
+	function Logger(name) {
+		this.name = name;
+	}
+
+	for(var level in LEVELS) {
+		(function(level) {
+			Logger.prototype[level.toLowerCase()] = function(message, error) {
+				log(level, this.name, message, error);
+			};
+		})(level);
+	}
+
+	function getLogger(name) {
+		return loggers[name] || (loggers[name] = new Logger(name));
+	}
+
+	window.addEventListener("error", function(event) {
+		log("ERROR", "window", event.message + " (" + event.filename + ":" + event.lineno + ")", event.error);
+	});
+	window.addEventListener("unhandledrejection", function(event) {
+		var reason = event.reason;
+		log("ERROR", "window", "Unhandled rejection: " + (reason && reason.message || reason), reason);
+	});
+	window.addEventListener("pagehide", function() {
+		flush(true);
+	});
+	document.addEventListener("visibilitychange", function() {
+		if(document.visibilityState == "hidden") flush(true);
+	});
+
+	var root = getLogger("default");
+
+	return {
+		getLogger: getLogger,
+		configure: function(options) {
+			for(var key in options) {
+				if(config.hasOwnProperty(key)) config[key] = options[key];
+			}
+		},
+		flush: function() {
+			flush(false);
+		},
+		trace: function(message, error) { root.trace(message, error); },
+		debug: function(message, error) { root.debug(message, error); },
+		info: function(message, error) { root.info(message, error); },
+		warn: function(message, error) { root.warn(message, error); },
+		error: function(message, error) { root.error(message, error); }
+	};
+
+})(window, document);
@@ -0,0 +1,71 @@
+package org.openntf.base.logback.xsp.status;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.metrics.Metrics;
+
+/**
+ * Publishes the XLogback {@link Metrics} as JSON, or in the Prometheus text format for 
+ * <code>?format=prometheus</code> and clients accepting only <code>text/plain</code>.
+ * 
+ * Disabled unless <code>Xlb_XspStatus=1</code>. Only authenticated users having the role of 
+ * <code>Xlb_XspStatusRole</code> (default <code>[XlbStatus]</code>) in the ACL of the database used in the URL 
+ * are allowed.
+ */
+public class StatusServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String FORMAT_PROMETHEUS = "prometheus";
+	private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+	private static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=UTF-8";
+
+	private static final boolean enabled = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_STATUS, 0) == 1;
+	private static final String role = LogSettings.getStringValue(LogSettings.SETTING_XSP_STATUSROLE, "[XlbStatus]");
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if(!enabled) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String user = request.getRemoteUser();
+		if(user == null || "Anonymous".equalsIgnoreCase(user) || !request.isUserInRole(role)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+
+		String content;
+		if(isPrometheus(request)) {
+			response.setContentType(CONTENT_TYPE_PROMETHEUS);
+			content = Metrics.toPrometheus();
+		} else {
+			response.setContentType(CONTENT_TYPE_JSON);
+			content = Metrics.toJson();
+		}
+
+		byte[] data = content.getBytes("UTF-8");
+
+		response.setHeader("Cache-Control", "no-cache");
+		response.setContentLength(data.length);
+		response.getOutputStream().write(data);
+	}
+
+	private static boolean isPrometheus(HttpServletRequest request) {
+		String format = request.getParameter("format");
+		if(format != null) {
+			return FORMAT_PROMETHEUS.equalsIgnoreCase(format);
+		}
+
+		String accept = request.getHeader("Accept");
+		return accept != null && accept.startsWith("text/plain");
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.openntf.base.logback.xsp.timing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openntf.base.logback.metrics.LatencyHistogram;
+
+/**
+ * Request timings of a single page: a histogram of the total time and the sum of each phase.
+ */
+public class PageTimings {
+
+	private final String page;
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(PhaseTimingListener.PHASE_COUNT);
+
+	public PageTimings(String page) {
+		this.page = page;
+	}
+
+	void record(long[] phases, long totalNanos) {
+		for(int i=0; i<phases.length; i++) {
+			if(phases[i] > 0) {
+				phaseNanos.addAndGet(i, phases[i]);
+			}
+		}
+
+		total.record(totalNanos);
+	}
+
+	public String getPage() {
+		return page;
+	}
+
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return mean time spent in the phase per request, in milliseconds.
+	 */
+	public long getPhaseMeanMillis(int phase) {
+		long n = total.getCount();
+		return n == 0 ? 0 : phaseNanos.get(phase) / n / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(page).append(": count=").append(total.getCount());
+		sb.append(", p50=").append(total.getPercentileMillis(50)).append("ms");
+		sb.append(", p90=").append(total.getPercentileMillis(90)).append("ms");
+		sb.append(", p99=").append(total.getPercentileMillis(99)).append("ms");
+		sb.append(", max=").append(total.getMaxMillis()).append("ms");
+		sb.append(", mean phases=[");
+
+		for(int i=1; i<PhaseTimingListener.PHASE_COUNT; i++) {
+			if(i > 1) sb.append(", ");
+			sb.append(PhaseTimingListener.PHASE_NAMES[i]).append('=').append(getPhaseMeanMillis(i));
+		}
+
+		return sb.append("]ms").toString();
+	}
+
+}
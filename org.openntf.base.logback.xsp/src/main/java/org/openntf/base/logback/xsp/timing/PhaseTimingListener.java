@@ -0,0 +1,93 @@
+package org.openntf.base.logback.xsp.timing;
+
+import javax.faces.component.UIViewRoot;
+import javax.faces.context.FacesContext;
+import javax.faces.event.PhaseEvent;
+import javax.faces.event.PhaseId;
+import javax.faces.event.PhaseListener;
+
+/**
+ * Times each JSF phase of XPages requests. The state is kept in a reused per-thread array, so a request 
+ * costs a few {@link System#nanoTime()} calls and atomic increments. See {@link PhaseTimings}.
+ */
+public class PhaseTimingListener implements PhaseListener {
+
+	private static final long serialVersionUID = 1L;
+
+	// Indexed by PhaseId ordinal. 0 is ANY_PHASE.
+	static final int PHASE_COUNT = 7;
+	static final String[] PHASE_NAMES = { "any", "restore", "apply", "validate", "update", "invoke", "render" };
+
+	private static class RequestState {
+		private long started = 0;
+		private final long[] phaseStarted = new long[PHASE_COUNT];
+		private final long[] phaseNanos = new long[PHASE_COUNT];
+	}
+
+	private static final ThreadLocal<RequestState> state = new ThreadLocal<RequestState>() {
+		@Override
+		protected RequestState initialValue() {
+			return new RequestState();
+		}
+	};
+
+	public PhaseId getPhaseId() {
+		return PhaseId.ANY_PHASE;
+	}
+
+	public void beforePhase(PhaseEvent event) {
+		if(! PhaseTimings.isEnabled()) return;
+
+		RequestState request = state.get();
+		int phase = event.getPhaseId().getOrdinal();
+		long now = System.nanoTime();
+
+		if(event.getPhaseId() == PhaseId.RESTORE_VIEW) {
+			request.started = now;
+			for(int i=0; i<PHASE_COUNT; i++) {
+				request.phaseNanos[i] = 0;
+			}
+		}
+
+		request.phaseStarted[phase] = now;
+	}
+
+	public void afterPhase(PhaseEvent event) {
+		RequestState request = state.get();
+
+		if(request.started == 0) return;
+
+		int phase = event.getPhaseId().getOrdinal();
+		long now = System.nanoTime();
+
+		request.phaseNanos[phase] += now - request.phaseStarted[phase];
+
+		FacesContext context = event.getFacesContext();
+
+		if(event.getPhaseId() == PhaseId.RENDER_RESPONSE || context.getResponseComplete()) {
+			long total = now - request.started;
+			request.started = 0;
+
+			PhaseTimings.record(getPage(context), request.phaseNanos, total);
+		}
+	}
+
+	private String getPage(FacesContext context) {
+		UIViewRoot viewRoot = context.getViewRoot();
+		String viewId = (viewRoot == null) ? null : viewRoot.getViewId();
+
+		return context.getExternalContext().getRequestContextPath() + (viewId == null ? "" : viewId);
+	}
+
+	static String describe(long[] phaseNanos) {
+		StringBuilder sb = new StringBuilder();
+
+		for(int i=1; i<PHASE_COUNT; i++) {
+			if(i > 1) sb.append(", ");
+			sb.append(PHASE_NAMES[i]).append('=').append(phaseNanos[i] / 1000000L);
+		}
+
+		return sb.append(" ms").toString();
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.openntf.base.logback.xsp.timing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Per-page request timings collected by {@link PhaseTimingListener}. Slow requests are logged at once. 
+ * Percentile summaries are logged periodically by the request that finishes after the interval, so no 
+ * background thread is needed. Both use the <code>org.openntf.base.logback.xsp.timing</code> logger with 
+ * the XLB_TIMING marker.
+ */
+public class PhaseTimings {
+
+	public static final String LOGGER_NAME = "org.openntf.base.logback.xsp.timing";
+	public static final Marker MARKER = MarkerFactory.getMarker("XLB_TIMING");
+
+	private static final int MAX_PAGES = 500;
+	private static final int SUMMARY_PAGES = 20;
+	private static final String OTHER_PAGES = "(other pages)";
+
+	private static final Logger logger = DominoContextSelector.getDefaultLogger(LOGGER_NAME);
+
+	private static volatile ConcurrentMap<String, PageTimings> pages = new ConcurrentHashMap<String, PageTimings>();
+	private static final AtomicLong nextSummary = new AtomicLong();
+
+	private static volatile boolean enabled;
+	private static volatile long slowNanos;
+	private static volatile long summaryInterval;
+
+	static {
+		loadSettings();
+	}
+
+	/**
+	 * Settings are read again with each summary.
+	 */
+	private static void loadSettings() {
+		enabled = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_TIMING, 1) == 1;
+		slowNanos = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_SLOWREQUEST, 2000) * 1000000L;
+		summaryInterval = LogSettings.getIntegerValue(LogSettings.SETTING_XSP_TIMINGSUMMARY, 300000);
+
+		nextSummary.set(System.currentTimeMillis() + (summaryInterval > 0 ? summaryInterval : 60000L));
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void record(String page, long[] phaseNanos, long totalNanos) {
+		getPageTimings(page).record(phaseNanos, totalNanos);
+
+		if(slowNanos > 0 && totalNanos >= slowNanos) {
+			logger.warn(MARKER, "Slow request {} took {} ms ({})", new Object[] { page, totalNanos / 1000000L, PhaseTimingListener.describe(phaseNanos) });
+		}
+
+		long next = nextSummary.get();
+		if(System.currentTimeMillis() >= next && nextSummary.compareAndSet(next, Long.MAX_VALUE)) {
+			summarize();
+		}
+	}
+
+	private static PageTimings getPageTimings(String page) {
+		ConcurrentMap<String, PageTimings> current = pages;
+		PageTimings timings = current.get(page);
+
+		if(timings == null) {
+			// Pages beyond the limit share one entry.
+			if(current.size() >= MAX_PAGES) {
+				page = OTHER_PAGES;
+				timings = current.get(page);
+			}
+
+			if(timings == null) {
+				timings = new PageTimings(page);
+				PageTimings existing = current.putIfAbsent(page, timings);
+
+				if(existing != null) {
+					timings = existing;
+				}
+			}
+		}
+
+		return timings;
+	}
+
+	/**
+	 * Logs the busiest pages of the past interval and starts a new interval.
+	 */
+	private static void summarize() {
+		List<PageTimings> interval = new ArrayList<PageTimings>(pages.values());
+		pages = new ConcurrentHashMap<String, PageTimings>();
+
+		if(summaryInterval > 0 && ! interval.isEmpty() && logger.isInfoEnabled(MARKER)) {
+			Collections.sort(interval, new Comparator<PageTimings>() {
+				public int compare(PageTimings p1, PageTimings p2) {
+					long c1 = p1.getTotal().getCount();
+					long c2 = p2.getTotal().getCount();
+					return c1 < c2 ? 1 : (c1 == c2 ? 0 : -1);
+				}
+			});
+
+			for(int i=0; i<interval.size() && i<SUMMARY_PAGES; i++) {
+				logger.info(MARKER, "Request timings {}", interval.get(i));
+			}
+
+			if(interval.size() > SUMMARY_PAGES) {
+				logger.info(MARKER, "Request timings for {} more pages are not listed.", interval.size() - SUMMARY_PAGES);
+			}
+		}
+
+		loadSettings();
+	}
+
+	/**
+	 * @return timings of the current interval.
+	 */
+	public static Collection<PageTimings> getPages() {
+		return Collections.unmodifiableCollection(pages.values());
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.buffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Buffers events below the logger level during a unit of work (an XPages request, a tasklet run...) on 
+ * the current thread. Buffered events are sent to the appenders only if the unit fails, otherwise they are 
+ * discarded. Requires {@link UnitOfWorkFilter} in the logger context.
+ * 
+ * <pre>
+ * UnitOfWork.begin();
+ * try {
+ *     ...
+ * } catch(RuntimeException e) {
+ *     UnitOfWork.fail();
+ *     throw e;
+ * } finally {
+ *     UnitOfWork.end();
+ * }
+ * </pre>
+ * 
+ * Units can be nested. Only the outermost one decides. Without a started {@link UnitOfWorkFilter}, no unit is 
+ * begun and nothing is buffered.
+ *
+ */
+public class UnitOfWork {
+
+	public static final int DEFAULT_CAPACITY = 200;
+
+	private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+	// Ring buffer of the last unit on the thread, reused by the next one.
+	private static final ThreadLocal<Ring> rings = new ThreadLocal<Ring>();
+
+	private static volatile int capacity = DEFAULT_CAPACITY;
+
+	// Number of started filters
+	private static final AtomicInteger filters = new AtomicInteger();
+
+	private static class Ring {
+		final Logger[] loggers;
+		final ILoggingEvent[] events;
+
+		Ring(int capacity) {
+			this.loggers = new Logger[capacity];
+			this.events = new ILoggingEvent[capacity];
+		}
+	}
+
+	// Ring buffer
+	private final Logger[] loggers;
+	private final ILoggingEvent[] events;
+	private int head = 0;
+	private int size = 0;
+	private long discarded = 0;
+
+	private int depth = 1;
+	private boolean failed = false;
+	private boolean flushing = false;
+
+	private UnitOfWork(Ring ring) {
+		this.loggers = ring.loggers;
+		this.events = ring.events;
+	}
+
+	private static UnitOfWork create() {
+		Ring ring = rings.get();
+
+		if(ring == null || ring.events.length != capacity) {
+			ring = new Ring(capacity);
+			rings.set(ring);
+		}
+
+		return new UnitOfWork(ring);
+	}
+
+	public static void begin() {
+		UnitOfWork unit = current.get();
+
+		if(unit == null) {
+			if(isEnabled()) {
+				current.set(create());
+			}
+		} else {
+			unit.depth++;
+		}
+	}
+
+	/**
+	 * Begins a new unit on a pooled thread. A unit left open on the thread has not ended properly, so its 
+	 * events are flushed as failed.
+	 */
+	public static void beginFresh() {
+		UnitOfWork stale = current.get();
+
+		if(stale != null) {
+			stale.fail(true);
+			current.remove();
+		}
+
+		if(isEnabled()) {
+			current.set(create());
+		}
+	}
+
+	/**
+	 * Marks the current unit as failed. Buffered events are sent to the appenders at once, and later events 
+	 * of the unit are not buffered anymore.
+	 */
+	public static void fail() {
+		UnitOfWork unit = current.get();
+
+		if(unit != null) {
+			unit.fail(true);
+		}
+	}
+
+	/**
+	 * Ends the current unit. Buffered events are discarded unless the unit has failed.
+	 */
+	public static void end() {
+		UnitOfWork unit = current.get();
+
+		if(unit != null && --unit.depth <= 0) {
+			current.remove();
+			unit.clear();
+		}
+	}
+
+	/**
+	 * @return unit of the current thread, null if none.
+	 */
+	public static UnitOfWork getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * @return true if buffered events are being sent to the appenders on this thread. Appender thresholds 
+	 * should let them through.
+	 */
+	public static boolean isFlushing() {
+		UnitOfWork unit = current.get();
+		return unit != null && unit.flushing;
+	}
+
+	/**
+	 * @return true if a {@link UnitOfWorkFilter} has been started. Callers beginning a unit for every request 
+	 * can skip their work otherwise.
+	 */
+	public static boolean isEnabled() {
+		return filters.get() > 0;
+	}
+
+	static void filterStarted() {
+		filters.incrementAndGet();
+	}
+
+	static void filterStopped() {
+		filters.decrementAndGet();
+	}
+
+	public static int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Applies to the units started afterwards.
+	 */
+	public static void setCapacity(int capacity) {
+		UnitOfWork.capacity = Math.max(1, capacity);
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return number of events dropped because the buffer was full.
+	 */
+	public long getDiscarded() {
+		return discarded;
+	}
+
+	/**
+	 * Buffers the event, or sends it directly if the unit has failed.
+	 */
+	void add(Logger logger, ILoggingEvent event) {
+		if(failed) {
+			send(logger, event);
+			return;
+		}
+
+		int index = (head + size) % events.length;
+
+		if(size == events.length) {
+			// Full. Overwrite the oldest.
+			head = (head + 1) % events.length;
+			discarded++;
+		} else {
+			size++;
+		}
+
+		loggers[index] = logger;
+		events[index] = event;
+	}
+
+	void fail(boolean flush) {
+		failed = true;
+
+		if(flush) {
+			for(int i=0; i<size; i++) {
+				int index = (head + i) % events.length;
+
+				send(loggers[index], events[index]);
+
+				loggers[index] = null;
+				events[index] = null;
+			}
+
+			head = 0;
+			size = 0;
+		}
+	}
+
+	/**
+	 * Releases the buffered events, so the next unit gets an empty ring.
+	 */
+	private void clear() {
+		for(int i=0; i<size; i++) {
+			int index = (head + i) % events.length;
+
+			loggers[index] = null;
+			events[index] = null;
+		}
+
+		head = 0;
+		size = 0;
+	}
+
+	private void send(Logger logger, ILoggingEvent event) {
+		flushing = true;
+		try {
+			logger.callAppenders(event);
+		} finally {
+			flushing = false;
+		}
+	}
+
+}
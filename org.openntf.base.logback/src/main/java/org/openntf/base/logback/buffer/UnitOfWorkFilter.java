@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.buffer;
+
+import org.openntf.base.logback.filter.DominoArguments;
+import org.openntf.base.logback.filter.MdcThresholds;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Captures events below the logger level into the {@link UnitOfWork} of the current thread. An ERROR 
+ * event fails the unit, so the buffered events are written before it.
+ * 
+ * Outside a unit of work, the cost is a thread local lookup.
+ * 
+ * It should be the first turbo filter, so no other filter can accept an ERROR event before the unit sees it.
+ * Events accepted by the MDC thresholds are not buffered.
+ *
+ */
+public class UnitOfWorkFilter extends TurboFilter {
+
+	private static final StackTraceElement[] NO_CALLER_DATA = new StackTraceElement[0];
+
+	private Level level = Level.DEBUG;
+	private int capacity = UnitOfWork.DEFAULT_CAPACITY;
+	private MdcThresholds thresholds;
+
+	@Override
+	public void start() {
+		UnitOfWork.setCapacity(capacity);
+
+		if(! isStarted()) {
+			UnitOfWork.filterStarted();
+		}
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		if(isStarted()) {
+			UnitOfWork.filterStopped();
+		}
+		super.stop();
+	}
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level eventLevel, String format, Object[] params, Throwable t) {
+		if(eventLevel == null || !isStarted()) {
+			return FilterReply.NEUTRAL;
+		}
+
+		UnitOfWork unit = UnitOfWork.getCurrent();
+
+		if(unit == null || UnitOfWork.isFlushing()) {
+			return FilterReply.NEUTRAL;
+		}
+
+		if(eventLevel.isGreaterOrEqual(Level.ERROR)) {
+			if(! unit.isFailed()) {
+				unit.fail(true);
+			}
+			return FilterReply.NEUTRAL;
+		}
+
+		if(eventLevel.isGreaterOrEqual(logger.getEffectiveLevel()) || ! eventLevel.isGreaterOrEqual(level) || isAcceptedByMdc(eventLevel)) {
+			// Logged as usual, or not wanted at all.
+			return FilterReply.NEUTRAL;
+		}
+
+		// Domino objects might be recycled until the unit fails. The caller's array is not changed.
+		LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, eventLevel, format, t, DominoArguments.snapshot(params));
+
+		// Caller data would be computed later from a different stack. Thread name and MDC are taken now.
+		event.setMarker(marker);
+		event.setCallerData(NO_CALLER_DATA);
+		event.getThreadName();
+		event.getMDCPropertyMap();
+
+		unit.add(logger, event);
+
+		return FilterReply.DENY;
+	}
+
+	private boolean isAcceptedByMdc(Level eventLevel) {
+		if(thresholds == null || thresholds.isEmpty()) {
+			return false;
+		}
+
+		Level threshold = thresholds.getLevel();
+		return threshold != null && eventLevel.isGreaterOrEqual(threshold);
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Lowest level to be buffered.
+	 */
+	public void setLevel(Level level) {
+		this.level = level;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Maximum events buffered per unit. Oldest events are dropped first.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public MdcThresholds getThresholds() {
+		return thresholds;
+	}
+
+	/**
+	 * Rules of the MDC threshold filter, which comes after this one.
+	 */
+	public void setThresholds(MdcThresholds thresholds) {
+		this.thresholds = thresholds;
+	}
+
+}
@@ -16,11 +16,30 @@
  */
 package org.openntf.base.logback.config;
 
+import java.io.File;
+import java.net.URL;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openntf.base.logback.buffer.UnitOfWork;
+import org.openntf.base.logback.buffer.UnitOfWorkFilter;
 import org.openntf.base.logback.console.DominoConsoleAppender;
+import org.openntf.base.logback.filter.LevelThresholdFilter;
+import org.openntf.base.logback.filter.MdcThresholdFilter;
+import org.openntf.base.logback.filter.MdcThresholds;
+import org.openntf.base.logback.filter.RateLimitFilter;
+import org.openntf.base.logback.layout.HtmlStackTraceRenderer;
+import org.openntf.base.logback.layout.StackTraceConverter;
+import org.openntf.base.logback.metrics.MeteredRollingFileAppender;
 import org.openntf.base.logback.openlog.OpenLogAppender;
 import org.openntf.base.logback.utils.LogUtils;
+import org.openntf.base.logback.utils.StackTraceRenderer;
 import org.openntf.base.logback.utils.StringUtils;
 import org.openntf.base.logback.utils.Utils;
 import org.slf4j.LoggerFactory;
@@ -30,30 +49,44 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.PatternLayout;
-import ch.qos.logback.classic.filter.ThresholdFilter;
 import ch.qos.logback.classic.html.HTMLLayout;
 import ch.qos.logback.classic.joran.JoranConfigurator;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.ContextInitializer;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
 import ch.qos.logback.core.joran.event.SaxEvent;
 import ch.qos.logback.core.rolling.FixedWindowRollingPolicy;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.SizeBasedTriggeringPolicy;
+import ch.qos.logback.core.spi.FilterAttachable;
 import ch.qos.logback.core.status.ErrorStatus;
 import ch.qos.logback.core.status.OnConsoleStatusListener;
 import ch.qos.logback.core.status.Status;
 import ch.qos.logback.core.status.StatusUtil;
 
-public class AutoConfig {
+public class AutoConfig implements SettingsWatcher.Listener {
 
 	private static final String APPENDER_NAME_CONSOLE = "console";
 	private static final String APPENDER_NAME_OPENLOG = "openlog";
 	private static final String APPENDER_NAME_ROLLINGFILE = "rollingfile";
 
+	private static final String FAST_START_CONFIG = "fast-start.xml";
+
 	private static AutoConfig instance;
+	private static StartupTimings startupTimings;
 	
 	private LoggerContext lc;
+	private final Map<String, Level> thresholds = new LinkedHashMap<String, Level>();
 	private StatusUtil statusUtil;
+
+	private DominoConsoleAppender<ILoggingEvent> consoleAppender;
+	private OpenLogAppender openLogAppender;
+	private RollingFileAppender<ILoggingEvent> rollingFileAppender;
+	private SettingsWatcher watcher;
+	private final ThreadPoolExecutor reconfigurator = createReconfigurator();
+	private final MdcThresholds mdcThresholds = new MdcThresholds();
+	private UnitOfWorkFilter unitOfWorkFilter;
 	
 	private AutoConfig(LoggerContext lc) {
 		this.lc = lc;
@@ -64,21 +97,76 @@ public class AutoConfig {
 	 * This is the entry point for autoconfiguration.
 	 */
 	public static void init() {
+		StartupTimings timings = new StartupTimings();
 		int enabled = LogSettings.getIntegerValue(LogSettings.SETTING_AUTO, 0);
 
 		if(enabled!=1) return;
-		
-		// This will inevitably start the internal autoconfiguration.
-		LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+		timings.mark("settings");
+
+		boolean fastStart = beginFastStart();
+		LoggerContext lc;
+
+		try {
+			// This will inevitably start the internal autoconfiguration.
+			lc = (LoggerContext) LoggerFactory.getILoggerFactory();
+		} finally {
+			if(fastStart) {
+				System.clearProperty(ContextInitializer.CONFIG_FILE_PROPERTY);
+			}
+		}
+		timings.mark("loggerFactory");
 
 		try {
 			instance = new AutoConfig(lc);
-			instance.doInit();
+			instance.doInit(fastStart, timings);
 		} catch (Throwable t) {
 			// Acting paranoid...
 			t.printStackTrace();
 		}
-		
+
+		startupTimings = timings;
+
+		if(LogSettings.inDebugMode()) {
+			System.out.println("XLogback startup: " + timings);
+		}
+	}
+
+	/**
+	 * The internal autoconfiguration looks for configuration files on the classpath (including buddies) and
+	 * runs them, only to be reset by us. With the fast start, it is pointed to an empty configuration instead.
+	 * 
+	 * A configuration file given by the administrator is respected.
+	 * 
+	 * @return true if the fast start is in effect.
+	 */
+	private static boolean beginFastStart() {
+		if(LogSettings.getIntegerValue(LogSettings.SETTING_FAST_START, 1) != 1) return false;
+		if(System.getProperty(ContextInitializer.CONFIG_FILE_PROPERTY) != null) return false;
+
+		URL config = AutoConfig.class.getResource(FAST_START_CONFIG);
+		if(config == null) return false;
+
+		System.setProperty(ContextInitializer.CONFIG_FILE_PROPERTY, config.toString());
+		return true;
+	}
+
+	/**
+	 * @return timings of the last automatic configuration, or null if it didn't run.
+	 */
+	public static StartupTimings getStartupTimings() {
+		return startupTimings;
+	}
+
+	/**
+	 * Stops watching notes.ini. Called at the plugin stop.
+	 */
+	public static void shutdown() {
+		if(instance != null && instance.watcher != null) {
+			instance.watcher.stop();
+		}
+		if(instance != null) {
+			instance.reconfigurator.shutdown();
+		}
 	}
 
 	/**
@@ -104,18 +192,19 @@ public class AutoConfig {
 	 * Logback would have been configured proviously. So we will backup the safe configuration
 	 * and try to fall back properly.
 	 */
-	private void doInit() {
+	private void doInit(boolean fastStart, StartupTimings timings) {
 		JoranConfigurator joran = new JoranConfigurator();
 		boolean success = false;
 		
 		joran.setContext(lc);
 		List<SaxEvent> lastGoodConfig = joran.recallSafeConfiguration();
 
-		addInfo("Auto Configuration enabled.");
+		addInfo("Auto Configuration enabled" + (fastStart ? " with fast start." : "."));
 		try {
 			// autoconfig
 			resetConfiguration();
-			success = configure();
+			timings.mark("reset");
+			success = configure(timings);
 		} catch (Throwable t) {
 			addError("Auto Configuration failed with an error!", t);
 			success = false;
@@ -123,9 +212,15 @@ public class AutoConfig {
 		
 		if(success) {
 			addInfo("XLogback switched to the Automatic Configuration");
+			startWatcher();
 		} else {
 			try {
-				if(lastGoodConfig!=null) {
+				if(fastStart) {
+					// The default configuration has been skipped. Run it now.
+					resetConfiguration();
+					new ContextInitializer(lc).autoConfig();
+					addWarn("Auto Configuration returned to the default configuration.");
+				} else if(lastGoodConfig!=null) {
 					resetConfiguration();
 					joran.doConfigure(lastGoodConfig);
 					addWarn("Auto Configuration returned to the last good configuration.");				
@@ -144,6 +239,7 @@ public class AutoConfig {
 		
 		// Do we really need to clear this?
 		lc.getStatusManager().clear();
+		timings.mark("status");
 	}
 
 	/**
@@ -154,21 +250,246 @@ public class AutoConfig {
 	 * 	
 	 * @return true if everything works well.
 	 */
-	private boolean configure() {
-		DominoConsoleAppender<ILoggingEvent> consoleAppender = getConsoleAppender();
-		OpenLogAppender openLogAppender = getOpenLogAppender();
-		RollingFileAppender<ILoggingEvent> rollingFileAppender = getRollingFileAppender();
+	private boolean configure(StartupTimings timings) {
+		thresholds.clear();
+		configureStackTraces();
+		configureMdcThresholds();
+		timings.mark("stackTraces");
+
+		consoleAppender = getConsoleAppender();
+		timings.mark(APPENDER_NAME_CONSOLE);
+		openLogAppender = getOpenLogAppender(false);
+		timings.mark(APPENDER_NAME_OPENLOG);
+		rollingFileAppender = getRollingFileAppender();
+		timings.mark(APPENDER_NAME_ROLLINGFILE);
 		
+		// An ACCEPT ends the chain, so the unit of work has to see ERROR events first.
+		unitOfWorkFilter = getUnitOfWorkFilter();
+		if(unitOfWorkFilter != null) {
+			lc.addTurboFilter(unitOfWorkFilter);
+		}
+
+		lc.addTurboFilter(getMdcThresholdFilter());
+
 		Logger root = lc.getLogger(Logger.ROOT_LOGGER_NAME);
 		root.addAppender(consoleAppender);
 		root.addAppender(openLogAppender);
 		root.addAppender(rollingFileAppender);
 
+		tuneRootLevel(root);
+		timings.mark("attach");
+
 		// Check status levels for any ERROR from configurators
 		int highestLevel = statusUtil.getHighestLevel(0);
 		return (highestLevel != ErrorStatus.ERROR);
 	}
 
+	private void startWatcher() {
+		int interval = LogSettings.getIntegerValue(LogSettings.SETTING_WATCH_INTERVAL, 2000);
+		File iniFile = LogSettings.getNotesIniFile();
+
+		if(interval <= 0 || iniFile == null || ! iniFile.exists()) return;
+
+		watcher = new SettingsWatcher(iniFile, interval, this);
+		watcher.start();
+	}
+
+	/**
+	 * Only the appenders affected by the changed settings are replaced. The context is not reset, so other
+	 * loggers, appenders and filters stay as they are.
+	 * 
+	 * Session lease settings and the Auto and Debug flags need a restart. 
+	 * 
+	 * Called on the scheduler thread. Stopping an appender waits for its writers, so the work is handed to
+	 * a reconfiguration thread and changes are applied one after another.
+	 */
+	public void settingsChanged(final Set<String> changedNames) {
+		reconfigurator.execute(new Runnable() {
+			public void run() {
+				try {
+					reconfigure(changedNames);
+				} catch(Throwable t) {
+					System.err.println("XLogback reconfiguration failed: " + t.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Not guarded by the monitor of the configuration, so the scheduler never waits for a running change.
+	 */
+	private static ThreadPoolExecutor createReconfigurator() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "XLogback Reconfiguration");
+				thread.setDaemon(true);
+				thread.setContextClassLoader(AutoConfig.class.getClassLoader());
+				return thread;
+			}
+		});
+		// The thread is needed only for a moment after a change.
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private synchronized void reconfigure(Set<String> changedNames) {
+		boolean console = false;
+		boolean openLog = false;
+		boolean rollingFile = false;
+		boolean stackTraces = false;
+		boolean unitOfWork = false;
+
+		for(String name : changedNames) {
+			if(name.startsWith("console")) {
+				console = true;
+			} else if(name.startsWith("openlog")) {
+				openLog = true;
+			} else if(name.startsWith("file")) {
+				rollingFile = true;
+			} else if(name.startsWith("stacktrace")) {
+				stackTraces = true;
+			} else if(name.equalsIgnoreCase(LogSettings.SETTING_MDC_THRESHOLDS)) {
+				configureMdcThresholds();
+			} else if(name.startsWith("buffer")) {
+				unitOfWork = true;
+			} else if(name.equalsIgnoreCase(LogSettings.SETTING_RATELIMIT_BURST)) {
+				console = true;
+				openLog = true;
+			}
+		}
+
+		addInfo("Settings changed: " + changedNames);
+
+		Logger root = lc.getLogger(Logger.ROOT_LOGGER_NAME);
+
+		try {
+			if(stackTraces) {
+				configureStackTraces();
+			}
+
+			if(unitOfWork) {
+				// It is the first turbo filter and stays the first.
+				if(unitOfWorkFilter != null) {
+					lc.getTurboFilterList().remove(unitOfWorkFilter);
+					unitOfWorkFilter.stop();
+				}
+
+				unitOfWorkFilter = getUnitOfWorkFilter();
+				if(unitOfWorkFilter != null) {
+					lc.getTurboFilterList().add(0, unitOfWorkFilter);
+				}
+			}
+
+			if(console) {
+				DominoConsoleAppender<ILoggingEvent> oldAppender = consoleAppender;
+				consoleAppender = getConsoleAppender();
+				replaceAppender(root, oldAppender, consoleAppender);
+			}
+
+			if(openLog) {
+				// The new appender is attached before the old one is detached, so no event is missed. An event in 
+				// between may reach both, which is better than losing it. Journal files may be the same, so the
+				// new writers open them after the old ones have been closed.
+				OpenLogAppender oldAppender = openLogAppender;
+				openLogAppender = getOpenLogAppender(true);
+				root.addAppender(openLogAppender);
+				removeAppender(root, oldAppender);
+				openLogAppender.openJournals();
+
+				// Stopped appender has flushed what it could.
+				oldAppender.transferUnsaved(openLogAppender);
+				addInfo("Appender '" + openLogAppender.getName() + "' reconfigured.");
+			}
+
+			if(rollingFile) {
+				RollingFileAppender<ILoggingEvent> oldAppender = rollingFileAppender;
+				rollingFileAppender = getRollingFileAppender();
+				replaceAppender(root, oldAppender, rollingFileAppender);
+			}
+
+			tuneRootLevel(root);
+		} catch (Throwable t) {
+			addError("Reconfiguration failed with an error!", t);
+		}
+
+		if(! LogSettings.inDebugMode()) {
+			printProblems();
+		}
+
+		lc.getStatusManager().clear();
+	}
+
+	/**
+	 * The old appender is detached before stopping, so no event is appended to a stopped appender.
+	 */
+	private void replaceAppender(Logger root, Appender<ILoggingEvent> oldAppender, Appender<ILoggingEvent> newAppender) {
+		removeAppender(root, oldAppender);
+		addAppender(root, newAppender);
+	}
+
+	private void removeAppender(Logger root, Appender<ILoggingEvent> oldAppender) {
+		root.detachAppender(oldAppender);
+		oldAppender.stop();
+	}
+
+	private void addAppender(Logger root, Appender<ILoggingEvent> newAppender) {
+		root.addAppender(newAppender);
+
+		addInfo("Appender '" + newAppender.getName() + "' reconfigured.");
+	}
+
+	/**
+	 * Stack traces are rendered by our own renderer, so packaging data is not needed. Calculating it loads
+	 * classes for every frame.
+	 */
+	private void configureStackTraces() {
+		int depth = LogSettings.getIntegerValue(LogSettings.SETTING_STACKTRACE_DEPTH, StackTraceRenderer.DEFAULT_MAX_DEPTH);
+		String folded = LogSettings.getStringValue(LogSettings.SETTING_STACKTRACE_FOLD);
+
+		StackTraceRenderer.setDefault(new StackTraceRenderer(depth, folded));
+		lc.setPackagingDataEnabled(false);
+	}
+
+	/**
+	 * The same rules are shared by the turbo filter and the appender thresholds, and replaced in place.
+	 */
+	private void configureMdcThresholds() {
+		for(String invalid : mdcThresholds.setRules(LogSettings.getStringValue(LogSettings.SETTING_MDC_THRESHOLDS))) {
+			addWarn("Invalid MDC threshold rule: " + invalid);
+		}
+	}
+
+	private MdcThresholdFilter getMdcThresholdFilter() {
+		MdcThresholdFilter filter = new MdcThresholdFilter();
+
+		filter.setContext(lc);
+		filter.setName("mdcThresholds");
+		filter.setThresholds(mdcThresholds);
+		filter.start();
+
+		return filter;
+	}
+
+	/**
+	 * Events are buffered only if a buffer level is set.
+	 */
+	private UnitOfWorkFilter getUnitOfWorkFilter() {
+		Level level = LogSettings.getLogLevelValue(LogSettings.SETTING_BUFFER_LEVEL);
+
+		if(level == null) return null;
+
+		UnitOfWorkFilter filter = new UnitOfWorkFilter();
+
+		filter.setContext(lc);
+		filter.setName("unitOfWork");
+		filter.setLevel(level);
+		filter.setCapacity(LogSettings.getIntegerValue(LogSettings.SETTING_BUFFER_SIZE, UnitOfWork.DEFAULT_CAPACITY));
+		filter.setThresholds(mdcThresholds);
+		filter.start();
+
+		return filter;
+	}
+
 	private DominoConsoleAppender<ILoggingEvent> getConsoleAppender() {
 		DominoConsoleAppender<ILoggingEvent> appender = new DominoConsoleAppender<ILoggingEvent>();
 		
@@ -179,16 +500,14 @@ public class AutoConfig {
 		appender.setName(APPENDER_NAME_CONSOLE);
 		
 		PatternLayout layout = new PatternLayout();
+		addStackTraceConverter(layout);
 		layout.setPattern(patternStr);
 		layout.setContext(lc);
 		appender.setLayout(layout);
 
-		if(logLevel!=null) {
-			ThresholdFilter filter = new ThresholdFilter();
-			filter.setLevel(logLevel.levelStr); 
-			appender.addFilter(filter);
-			filter.start();
-		}
+		addThresholdFilter(appender, APPENDER_NAME_CONSOLE, logLevel);
+
+		addRateLimitFilter(appender, APPENDER_NAME_CONSOLE, LogSettings.getIntegerValue(LogSettings.SETTING_CONSOLE_RATELIMIT, 0));
 		
 		layout.start();
 		appender.start();
@@ -196,42 +515,119 @@ public class AutoConfig {
 		return appender;
 	}
 
-	private OpenLogAppender getOpenLogAppender() {
+	private OpenLogAppender getOpenLogAppender(boolean journalDeferred) {
 		OpenLogAppender appender = new OpenLogAppender();
 
 		String dbServer = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_DBSERVER);
 		String dbPath = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_DBPATH);
+		String routes = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_ROUTES);
 		int suppressEventStack = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_SUPPRESSEVENTSTACK, 0);
 		int expireDays = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_EXPIREDAYS, 0);
 		int debugLevel = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_DEBUGLEVEL, 0);
 		Level logLevel = LogSettings.getLogLevelValue(LogSettings.SETTING_OPENLOG_LOGLEVEL);
 		String defaultApp = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_DEFAULTAPP);
 		String defaultAgent = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_DEFAULTAGENT);
+		int async = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_ASYNC, 1);
+		int batchSize = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_BATCHSIZE, 50);
+		int flushInterval = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_FLUSHINTERVAL, 1000);
+		int queueCapacity = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_QUEUECAPACITY, 1000);
+		String overflowPolicy = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_OVERFLOWPOLICY);
+		String overflowLevel = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_OVERFLOWLEVEL);
+		int blockTimeout = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_BLOCKTIMEOUT, 100);
+		int dbIdleTimeout = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_DBIDLETIMEOUT, 300000);
+		int bulkImport = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_BULKIMPORT, 0);
+		int coalesceWindow = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_COALESCEWINDOW, 60000);
+		int journal = LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_JOURNAL, 0);
+		String journalSize = LogSettings.getStringValue(LogSettings.SETTING_OPENLOG_JOURNALSIZE);
 		
 		appender.setContext(lc);
 		appender.setName(APPENDER_NAME_OPENLOG);
 		appender.setTargetDbServer(dbServer);
 		appender.setTargetDbPath(dbPath);
+		appender.setRoutes(routes);
 		appender.setSuppressEventStack(suppressEventStack==1);
 		appender.setDebugLevel(debugLevel);
 		appender.setLogExpireDays(expireDays);
 		appender.setDefaultAgent(defaultAgent);
 		appender.setDefaultApp(defaultApp);
+		appender.setAsync(async==1);
+		appender.setBatchSize(batchSize);
+		appender.setFlushInterval(flushInterval);
+		appender.setQueueCapacity(queueCapacity);
+		appender.setOverflowPolicy(overflowPolicy);
+		appender.setOverflowLevel(overflowLevel);
+		appender.setBlockTimeout(blockTimeout);
+		appender.setDbIdleTimeout(dbIdleTimeout);
+		appender.setBulkImport(bulkImport==1);
+		appender.setCoalesceWindow(coalesceWindow);
+		appender.setJournal(journal==1);
+		appender.setJournalSize(journalSize);
+		appender.setJournalDeferred(journalDeferred);
 		
+		addThresholdFilter(appender, APPENDER_NAME_OPENLOG, logLevel);
+
+		addRateLimitFilter(appender, APPENDER_NAME_OPENLOG, LogSettings.getIntegerValue(LogSettings.SETTING_OPENLOG_RATELIMIT, 0));
+
+		appender.start();
+
+		return appender;
+	}
+
+	private void addThresholdFilter(FilterAttachable<ILoggingEvent> appender, String appenderName, Level logLevel) {
+		// Null means the appender accepts everything.
+		thresholds.put(appenderName, logLevel);
+
 		if(logLevel!=null) {
-			ThresholdFilter filter = new ThresholdFilter();
+			LevelThresholdFilter filter = new LevelThresholdFilter();
+			filter.setMdcThresholds(mdcThresholds);
 			filter.setLevel(logLevel.levelStr); 
 			appender.addFilter(filter);
 			filter.start();
 		}
+	}
 
-		appender.start();
+	/**
+	 * Root level is set to the lowest appender threshold. So events no appender will accept are rejected 
+	 * before they are created. If any appender has no threshold, the default root level is used.
+	 */
+	private void tuneRootLevel(Logger root) {
+		Level minimum = null;
 
-		return appender;
+		for(Level threshold : thresholds.values()) {
+			if(threshold == null) {
+				root.setLevel(Level.DEBUG);
+				return;
+			}
+
+			if(minimum == null || ! threshold.isGreaterOrEqual(minimum)) {
+				minimum = threshold;
+			}
+		}
+
+		if(minimum != null) {
+			root.setLevel(minimum);
+			addInfo("Root level set to " + minimum + " as the lowest appender threshold.");
+		}
+	}
+
+	/**
+	 * Rate limit filter should come after the threshold filter, so discarded events don't consume tokens.
+	 */
+	private void addRateLimitFilter(FilterAttachable<ILoggingEvent> appender, String appenderName, int rate) {
+		if(rate <= 0) return;
+
+		RateLimitFilter filter = new RateLimitFilter();
+		filter.setContext(lc);
+		filter.setName(appenderName);
+		filter.setRate(rate);
+		filter.setBurst(LogSettings.getIntegerValue(LogSettings.SETTING_RATELIMIT_BURST, 50));
+		filter.start();
+
+		appender.addFilter(filter);
 	}
 
 	private RollingFileAppender<ILoggingEvent> getRollingFileAppender() {
-		RollingFileAppender<ILoggingEvent> appender = new RollingFileAppender<ILoggingEvent>();
+		RollingFileAppender<ILoggingEvent> appender = new MeteredRollingFileAppender<ILoggingEvent>();
 
 		String logFilePath = LogSettings.getStringValue(LogSettings.SETTING_FILE_PATH);
 		String logFileName = "";
@@ -268,6 +664,7 @@ public class AutoConfig {
 
 		HTMLLayout layout = new HTMLLayout();
 		layout.setContext(lc);
+		layout.setThrowableRenderer(new HtmlStackTraceRenderer());
 		layout.setPattern(pattern);
 		layout.start();
 		
@@ -276,12 +673,7 @@ public class AutoConfig {
 		encoder.setLayout(layout);
 		encoder.start();
 		
-		if(logLevel!=null) {
-			ThresholdFilter filter = new ThresholdFilter();
-			filter.setLevel(logLevel.levelStr); 
-			appender.addFilter(filter);
-			filter.start();
-		}
+		addThresholdFilter(appender, APPENDER_NAME_ROLLINGFILE, logLevel);
 
 		appender.setRollingPolicy(rollPolicy);
 		appender.setTriggeringPolicy(triggerPolicy);
@@ -291,6 +683,14 @@ public class AutoConfig {
 		return appender;
 	}
 
+	private void addStackTraceConverter(PatternLayout layout) {
+		String converter = StackTraceConverter.class.getName();
+
+		layout.getInstanceConverterMap().put("ex", converter);
+		layout.getInstanceConverterMap().put("exception", converter);
+		layout.getInstanceConverterMap().put("throwable", converter);
+	}
+
 	private void addError(String msg, Throwable t) {
 		statusUtil.addError(this, msg, t);
 	}
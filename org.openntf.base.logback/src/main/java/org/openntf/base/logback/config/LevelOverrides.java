@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.openntf.base.logback.utils.Scheduler;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+
+/**
+ * Temporary logger levels set at runtime. The original level is restored when the time is up or on reset.
+ * 
+ * Appender thresholds would still reject events below their level, so the {@link org.openntf.base.logback.filter.LevelThresholdFilter}
+ * checks overrides for rejected events.
+ *
+ */
+public class LevelOverrides {
+
+	public static class LevelOverride {
+		private final String loggerName;
+		private final Level originalLevel;
+		private final Level level;
+		private final long expires;
+		private ScheduledFuture<?> revertTask;
+
+		private LevelOverride(String loggerName, Level originalLevel, Level level, long expires) {
+			this.loggerName = loggerName;
+			this.originalLevel = originalLevel;
+			this.level = level;
+			this.expires = expires;
+		}
+
+		public String getLoggerName() {
+			return loggerName;
+		}
+
+		public Level getOriginalLevel() {
+			return originalLevel;
+		}
+
+		public Level getLevel() {
+			return level;
+		}
+
+		/**
+		 * @return expiry time in milliseconds, 0 if permanent.
+		 */
+		public long getExpires() {
+			return expires;
+		}
+	}
+
+	private static final Map<String, LevelOverride> overrides = new HashMap<String, LevelOverride>();
+
+	// Copy for lock-free lookups from filters.
+	private static volatile Map<String, Level> levels = Collections.emptyMap();
+
+	/**
+	 * Sets the level of the logger. Loggers below inherit it unless they have their own level.
+	 * 
+	 * @param ttl milliseconds until the original level is restored. 0 keeps the level until reset.
+	 */
+	public static synchronized LevelOverride set(final LoggerContext lc, final String loggerName, Level level, long ttl) {
+		Logger logger = lc.getLogger(loggerName);
+		LevelOverride previous = overrides.get(logger.getName());
+		Level originalLevel = logger.getLevel();
+
+		if(previous != null) {
+			cancel(previous);
+			originalLevel = previous.getOriginalLevel();
+		}
+
+		LevelOverride override = new LevelOverride(logger.getName(), originalLevel, level, ttl > 0 ? System.currentTimeMillis() + ttl : 0);
+
+		if(ttl > 0) {
+			override.revertTask = Scheduler.scheduleOnce(new Runnable() {
+				public void run() {
+					reset(lc, loggerName);
+				}
+			}, ttl);
+		}
+
+		overrides.put(override.getLoggerName(), override);
+		logger.setLevel(level);
+		publish();
+
+		return override;
+	}
+
+	/**
+	 * Restores the original level of the logger.
+	 * 
+	 * @return false if the logger has no override.
+	 */
+	public static synchronized boolean reset(LoggerContext lc, String loggerName) {
+		Logger logger = lc.getLogger(loggerName);
+		LevelOverride override = overrides.remove(logger.getName());
+
+		if(override == null) return false;
+
+		cancel(override);
+		logger.setLevel(override.getOriginalLevel());
+		publish();
+
+		return true;
+	}
+
+	public static synchronized void resetAll(LoggerContext lc) {
+		for(String loggerName : getActive().keySet()) {
+			reset(lc, loggerName);
+		}
+	}
+
+	public static synchronized Map<String, LevelOverride> getActive() {
+		return Collections.unmodifiableMap(new HashMap<String, LevelOverride>(overrides));
+	}
+
+	/**
+	 * @return overridden level of the logger or its closest overridden parent, null if none.
+	 */
+	public static Level getLevel(String loggerName) {
+		Map<String, Level> current = levels;
+
+		if(current.isEmpty()) return null;
+
+		String name = loggerName;
+		while(true) {
+			Level level = current.get(name);
+
+			if(level != null) return level;
+
+			int index = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+			if(index < 0) break;
+
+			name = name.substring(0, index);
+		}
+
+		return current.get(Logger.ROOT_LOGGER_NAME);
+	}
+
+	private static void cancel(LevelOverride override) {
+		if(override.revertTask != null) {
+			override.revertTask.cancel(false);
+		}
+	}
+
+	private static void publish() {
+		Map<String, Level> current = new HashMap<String, Level>();
+
+		for(LevelOverride override : overrides.values()) {
+			current.put(override.getLoggerName(), override.getLevel());
+		}
+
+		levels = current;
+	}
+
+}
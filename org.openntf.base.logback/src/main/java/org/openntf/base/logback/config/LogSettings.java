@@ -22,9 +22,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
 import java.util.TreeMap;
 
 import org.openntf.base.logback.utils.LogUtils;
+import org.openntf.base.logback.utils.StackTraceRenderer;
 import org.openntf.base.logback.utils.StringUtils;
 import org.openntf.base.logback.utils.Utils;
 
@@ -46,31 +48,71 @@ public class LogSettings {
 	
 	public static final String SETTING_AUTO = "Auto";
 	public static final String SETTING_DEBUG = "Debug";
+	public static final String SETTING_WATCH_INTERVAL = "WatchInterval";
+	public static final String SETTING_FAST_START = "FastStart";
+	public static final String SETTING_CONTEXT_SELECTOR = "ContextSelector";
 	
 	public static final String SETTING_CONSOLE_PATTERN = "ConsolePattern";
 	public static final String SETTING_CONSOLE_LOGLEVEL = "ConsoleLogLevel";
+	public static final String SETTING_CONSOLE_RATELIMIT = "ConsoleRateLimit";
 	
 	public static final String SETTING_OPENLOG_DBSERVER = "OpenLogDbServer";
 	public static final String SETTING_OPENLOG_DBPATH = "OpenLogDbPath";
+	public static final String SETTING_OPENLOG_ROUTES = "OpenLogRoutes";
 	public static final String SETTING_OPENLOG_SUPPRESSEVENTSTACK = "OpenLogSuppressEventStack";
 	public static final String SETTING_OPENLOG_EXPIREDAYS = "OpenLogExpireDays";
 	public static final String SETTING_OPENLOG_DEBUGLEVEL = "OpenLogDebugLevel";
 	public static final String SETTING_OPENLOG_LOGLEVEL = "OpenLogLogLevel";
+	public static final String SETTING_OPENLOG_RATELIMIT = "OpenLogRateLimit";
 	public static final String SETTING_OPENLOG_DEFAULTAPP = "OpenLogDefaultApp";
 	public static final String SETTING_OPENLOG_DEFAULTAGENT = "OpenLogDefaultAgent";
+	public static final String SETTING_OPENLOG_ASYNC = "OpenLogAsync";
+	public static final String SETTING_OPENLOG_BATCHSIZE = "OpenLogBatchSize";
+	public static final String SETTING_OPENLOG_FLUSHINTERVAL = "OpenLogFlushInterval";
+	public static final String SETTING_OPENLOG_QUEUECAPACITY = "OpenLogQueueCapacity";
+	public static final String SETTING_OPENLOG_OVERFLOWPOLICY = "OpenLogOverflowPolicy";
+	public static final String SETTING_OPENLOG_OVERFLOWLEVEL = "OpenLogOverflowLevel";
+	public static final String SETTING_OPENLOG_BLOCKTIMEOUT = "OpenLogBlockTimeout";
+	public static final String SETTING_OPENLOG_DBIDLETIMEOUT = "OpenLogDbIdleTimeout";
+	public static final String SETTING_OPENLOG_BULKIMPORT = "OpenLogBulkImport";
+	public static final String SETTING_OPENLOG_COALESCEWINDOW = "OpenLogCoalesceWindow";
+	public static final String SETTING_OPENLOG_JOURNAL = "OpenLogJournal";
+	public static final String SETTING_OPENLOG_JOURNALSIZE = "OpenLogJournalSize";
+
+	public static final String SETTING_RATELIMIT_BURST = "RateLimitBurst";
+	public static final String SETTING_MDC_THRESHOLDS = "MdcThresholds";
+	public static final String SETTING_BUFFER_LEVEL = "BufferLevel";
+	public static final String SETTING_BUFFER_SIZE = "BufferSize";
 
 	public static final String SETTING_FILE_PATH = "FilePath";
 	public static final String SETTING_FILE_MAXINDEX = "FileMaxIndex";
 	public static final String SETTING_FILE_MAXSIZE = "FileMaxSize";
 	public static final String SETTING_FILE_PATTERN = "FilePattern";
 	public static final String SETTING_FILE_LOGLEVEL = "FileLogLevel";
+
+	public static final String SETTING_STACKTRACE_DEPTH = "StackTraceDepth";
+	public static final String SETTING_STACKTRACE_FOLD = "StackTraceFold";
+
+	public static final String SETTING_XSP_TIMING = "XspTiming";
+	public static final String SETTING_XSP_SLOWREQUEST = "XspSlowRequest";
+	public static final String SETTING_XSP_TIMINGSUMMARY = "XspTimingSummary";
+	public static final String SETTING_XSP_CLIENTLOG = "XspClientLog";
+	public static final String SETTING_XSP_CLIENTLOGRATE = "XspClientLogRate";
+	public static final String SETTING_XSP_CLIENTLOGBURST = "XspClientLogBurst";
+	public static final String SETTING_XSP_CLIENTLOGMAXBYTES = "XspClientLogMaxBytes";
+	public static final String SETTING_XSP_CLIENTLOGANONYMOUS = "XspClientLogAnonymous";
+	public static final String SETTING_XSP_STATUS = "XspStatus";
+	public static final String SETTING_XSP_STATUSROLE = "XspStatusRole";
+
+	public static final String SETTING_JMX = "Jmx";
 	
-	private static final String SETTING_DOMINO_LOGGING = "_DominoLogging";
-	private static final String SETTING_DOMINO_DATA = "_DominoData";
-	private static final String SETTING_DOMINO_PROGRAM = "_DominoPath";
+	static final String SETTING_DOMINO_LOGGING = "_DominoLogging";
+	static final String SETTING_DOMINO_DATA = "_DominoData";
+	static final String SETTING_DOMINO_PROGRAM = "_DominoPath";
 	private static final String SETTING_XLB_PREFIX = "Xlb_";
 	
-	private static LogSettings instance = null;
+	private static volatile LogSettings instance = null;
+	private static volatile SettingsSnapshot snapshot = null;
 	
 	private Map<String, String> settings;
 	
@@ -78,35 +120,116 @@ public class LogSettings {
 	static {
 		defaultSettings.put(SETTING_AUTO, "1");
 		defaultSettings.put(SETTING_DEBUG, "0");
+		defaultSettings.put(SETTING_WATCH_INTERVAL, "2000");
+		defaultSettings.put(SETTING_FAST_START, "1");
+		defaultSettings.put(SETTING_CONTEXT_SELECTOR, "0");
 		defaultSettings.put(SETTING_CONSOLE_PATTERN, "%-5level %msg%n%ex{1}");
 		defaultSettings.put(SETTING_CONSOLE_LOGLEVEL, "INFO");
+		defaultSettings.put(SETTING_CONSOLE_RATELIMIT, "0");
 		defaultSettings.put(SETTING_OPENLOG_DBPATH, "OpenLog.nsf");
 		defaultSettings.put(SETTING_OPENLOG_SUPPRESSEVENTSTACK, "1");
 		defaultSettings.put(SETTING_OPENLOG_EXPIREDAYS, "0");
 		defaultSettings.put(SETTING_OPENLOG_DEBUGLEVEL, "2");
 		defaultSettings.put(SETTING_OPENLOG_LOGLEVEL, "INFO");
+		defaultSettings.put(SETTING_OPENLOG_RATELIMIT, "0");
 		defaultSettings.put(SETTING_OPENLOG_DEFAULTAPP, LogUtils.getPlatformName());
+		defaultSettings.put(SETTING_OPENLOG_ASYNC, "1");
+		defaultSettings.put(SETTING_OPENLOG_BATCHSIZE, "50");
+		defaultSettings.put(SETTING_OPENLOG_FLUSHINTERVAL, "1000");
+		defaultSettings.put(SETTING_OPENLOG_QUEUECAPACITY, "1000");
+		defaultSettings.put(SETTING_OPENLOG_OVERFLOWPOLICY, "DROP_OLDEST");
+		defaultSettings.put(SETTING_OPENLOG_OVERFLOWLEVEL, "WARN");
+		defaultSettings.put(SETTING_OPENLOG_BLOCKTIMEOUT, "100");
+		defaultSettings.put(SETTING_OPENLOG_DBIDLETIMEOUT, "300000");
+		defaultSettings.put(SETTING_OPENLOG_BULKIMPORT, "0");
+		defaultSettings.put(SETTING_OPENLOG_COALESCEWINDOW, "60000");
+		defaultSettings.put(SETTING_OPENLOG_JOURNAL, "0");
+		defaultSettings.put(SETTING_OPENLOG_JOURNALSIZE, "64MB");
+		defaultSettings.put(SETTING_RATELIMIT_BURST, "50");
+		defaultSettings.put(SETTING_BUFFER_SIZE, "200");
 		defaultSettings.put(SETTING_FILE_MAXINDEX, "20");
 		defaultSettings.put(SETTING_FILE_MAXSIZE, "2MB");
 		defaultSettings.put(SETTING_FILE_PATTERN, "%date{dd/MM;HH:mm:ss}%level%msg%mdc{app}%marker%logger{26}");
 		defaultSettings.put(SETTING_FILE_LOGLEVEL, "INFO");
+		defaultSettings.put(SETTING_STACKTRACE_DEPTH, "100");
+		defaultSettings.put(SETTING_STACKTRACE_FOLD, StackTraceRenderer.DEFAULT_FOLDED_PACKAGES);
+		defaultSettings.put(SETTING_XSP_TIMING, "1");
+		defaultSettings.put(SETTING_XSP_SLOWREQUEST, "2000");
+		defaultSettings.put(SETTING_XSP_TIMINGSUMMARY, "300000");
+		defaultSettings.put(SETTING_XSP_CLIENTLOG, "0");
+		defaultSettings.put(SETTING_XSP_CLIENTLOGRATE, "60");
+		defaultSettings.put(SETTING_XSP_CLIENTLOGBURST, "50");
+		defaultSettings.put(SETTING_XSP_CLIENTLOGMAXBYTES, "65536");
+		defaultSettings.put(SETTING_XSP_CLIENTLOGANONYMOUS, "0");
+		defaultSettings.put(SETTING_XSP_STATUS, "0");
+		defaultSettings.put(SETTING_XSP_STATUSROLE, "[XlbStatus]");
+		defaultSettings.put(SETTING_JMX, "1");
 	}
 	
 	public static LogSettings getDefaultInstance() {
-		if(instance==null) {
-			instance = new LogSettings();
-			instance.loadNotesIniVars(getNotesIniFile());
-		}
-		
+		getSnapshot();
 		return instance;
 	}
+
+	/**
+	 * @return current settings. Built on the first call.
+	 */
+	public static SettingsSnapshot getSnapshot() {
+		SettingsSnapshot current = snapshot;
+
+		if(current == null) {
+			synchronized(LogSettings.class) {
+				current = snapshot;
+				if(current == null) {
+					current = reload();
+				}
+			}
+		}
+
+		return current;
+	}
+
+	/**
+	 * Reads notes.ini and JVM properties again and replaces the current settings. Readers will see either the
+	 * old or the new settings as a whole.
+	 * 
+	 * @return new settings.
+	 */
+	public static synchronized SettingsSnapshot reload() {
+		LogSettings newInstance = new LogSettings();
+		newInstance.loadNotesIniVars(getNotesIniFile());
+
+		SettingsSnapshot newSnapshot = new SettingsSnapshot(getJvmSettings(), newInstance.settings, defaultSettings);
+
+		instance = newInstance;
+		snapshot = newSnapshot;
+
+		return newSnapshot;
+	}
+
+	/**
+	 * JVM properties are matched case insensitively, like notes.ini parameters. If two properties differ only 
+	 * in case, either one may win.
+	 */
+	private static Map<String, String> getJvmSettings() {
+		Map<String, String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		Properties properties = System.getProperties();
+
+		for(String name : properties.stringPropertyNames()) {
+			if(name.regionMatches(true, 0, SETTING_XLB_PREFIX, 0, SETTING_XLB_PREFIX.length())) {
+				values.put(name.substring(SETTING_XLB_PREFIX.length()), properties.getProperty(name));
+			}
+		}
+
+		return values;
+	}
 		
 	private LogSettings() {
 		// Map implementation should be case insensitive.
 		settings = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
 	}
 	
-	private static File getNotesIniFile() {
+	static File getNotesIniFile() {
 		// FUTURE AIX/SOLARIS SUPPORT
 		
 		String progpath = System.getProperty("notes.binary");
@@ -216,7 +339,7 @@ public class LogSettings {
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 
@@ -226,22 +349,13 @@ public class LogSettings {
 	 * @return null if name is empty or value does not exist.
 	 */
 	public static String getStringValue(String name) {
-		if(StringUtils.isEmpty(name)) return null;
-
-		String sysValue = System.getProperty(SETTING_XLB_PREFIX+name);
-		if(StringUtils.isNotEmpty(sysValue)) {
-			return sysValue;
-		}
-		
-		String value = getSettings().get(name);
-		
-		return StringUtils.defaultIfEmpty(value, defaultSettings.get(name));
+		return getSnapshot().getString(name);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 4. Given default value
@@ -253,14 +367,13 @@ public class LogSettings {
 	 * @return null if name is empty or value does not exist.
 	 */
 	public static String getStringValue(String name, String defaultIfEmpty) {
-		String value = getStringValue(name);		
-		return StringUtils.isEmpty(value) ? defaultIfEmpty : value;
+		return getSnapshot().getString(name, defaultIfEmpty);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 
@@ -270,30 +383,13 @@ public class LogSettings {
 	 * @return null if name is empty, value does not exist or not integer.
 	 */
 	public static Integer getIntegerValue(String name) {
-		if(StringUtils.isEmpty(name)) return null;
-
-		String sysValue = System.getProperty(SETTING_XLB_PREFIX+name);
-		if(Utils.isInteger(sysValue)) {
-			return Integer.parseInt(sysValue);
-		}
-		
-		String value = getSettings().get(name);
-		if(Utils.isInteger(value)) {
-			return Integer.parseInt(value);
-		}
-		
-		String defValue = defaultSettings.get(name);
-		if(Utils.isInteger(defValue)) {
-			return Integer.parseInt(defValue);
-		}
-		
-		return null;
+		return getSnapshot().getInteger(name);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 4. Given default value
@@ -305,15 +401,13 @@ public class LogSettings {
 	 * @return null if name is empty, value does not exist or not integer.
 	 */
 	public static int getIntegerValue(String name, int defaultIfEmpty) {
-		Integer value = getIntegerValue(name);
-		
-		return value==null ? defaultIfEmpty : value;
+		return getSnapshot().getInteger(name, defaultIfEmpty);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 
@@ -323,30 +417,13 @@ public class LogSettings {
 	 * @return null if name is empty, value does not exist or not boolean.
 	 */
 	public static Boolean getBooleanValue(String name) {
-		if(StringUtils.isEmpty(name)) return null;
-
-		String sysValue = System.getProperty(SETTING_XLB_PREFIX+name);
-		if(Utils.isBoolean(sysValue)) {
-			return StringUtils.equalsIgnoreCase(sysValue, "true");
-		}
-		
-		String value = getSettings().get(name);
-		if(Utils.isBoolean(value)) {
-			return StringUtils.equalsIgnoreCase(value, "true");
-		}
-		
-		String defValue = defaultSettings.get(name);
-		if(Utils.isBoolean(defValue)) {
-			return StringUtils.equalsIgnoreCase(defValue, "true");
-		}
-		
-		return null;
+		return getSnapshot().getBoolean(name);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 4. Given default value
@@ -366,7 +443,7 @@ public class LogSettings {
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 
@@ -376,25 +453,13 @@ public class LogSettings {
 	 * @return null if name is empty, value does not exist or not a log level.
 	 */
 	public static Level getLogLevelValue(String name) {
-		if(StringUtils.isEmpty(name)) return null;
-
-		String sysValue = System.getProperty(SETTING_XLB_PREFIX+name);
-		if(Utils.isLogLevel(sysValue)) {
-			return Level.toLevel(sysValue);
-		}
-		
-		String value = getSettings().get(name);
-		if(Utils.isLogLevel(value)) {
-			return Level.toLevel(value);
-		}
-		
-		return Level.toLevel(defaultSettings.get(name), null);
+		return getSnapshot().getLevel(name);
 	}
 
 	/**
 	 * Returns value with any name from the settings. Setting will be effective in the following order:
 	 * 
-	 * 1. JVM Properties (Case sensitive)
+	 * 1. JVM Properties (Case insensitive)
 	 * 2. Notes.ini parameters (Case insensitive)
 	 * 3. Default values
 	 * 4. Given default value
@@ -418,7 +483,7 @@ public class LogSettings {
 	 * @return domino program directory, ends with '/' or '\' depending on the OS.
 	 */
 	public static String getDominoProgramPath() {
-		return Utils.toSafeFolder(getStringValue(SETTING_DOMINO_PROGRAM, System.getProperty("notes.binary")));
+		return getSnapshot().getDominoProgramPath();
 	}
 
 	/**
@@ -428,18 +493,7 @@ public class LogSettings {
 	 * @return domino data directory, ends with '/' or '\' depending on the OS.
 	 */
 	public static String getDominoDataPath() {
-		String pathData = getStringValue(SETTING_DOMINO_DATA);
-		
-		if(StringUtils.isEmpty(pathData)) {
-			// This is compatible with Linux as well.
-			pathData = System.getProperty("user.dir");
-			
-			if(StringUtils.isNotEmpty(pathData) && !pathData.toLowerCase(Locale.ENGLISH).endsWith("data")) {
-				pathData += Utils.toSafeFolder(pathData) + "data";
-			}
-	
-		}
-		return Utils.toSafeFolder(pathData);
+		return getSnapshot().getDominoDataPath();
 	}
 
 	/**
@@ -449,12 +503,7 @@ public class LogSettings {
 	 * @return domino logging directory, ends with '/' or '\' depending on the OS.
 	 */
 	public static String getDominoLoggingPath() {
-		String pathLogging = getStringValue(SETTING_DOMINO_LOGGING);
-		
-		if(StringUtils.isEmpty(pathLogging)) {
-			pathLogging = Utils.toSafeFolder(getDominoDataPath()) + "IBM_TECHNICAL_SUPPORT";
-		}
-		return Utils.toSafeFolder(pathLogging);
+		return getSnapshot().getDominoLoggingPath();
 	}
 
 	/**
@@ -466,13 +515,7 @@ public class LogSettings {
 	 * @return xlogback logging directory, ends with '/' or '\' depending on the OS.
 	 */
 	public static String getLogbackLoggingPath() {
-		String logPath = getDominoLoggingPath();
-		
-		if(StringUtils.isEmpty(logPath)) {
-			return Utils.toSafeFolder(System.getProperty("rcp.data"))+"logs";
-		}
-		
-		return Utils.toSafeFolder(logPath)+"xlogback"+Utils.FILE_SEPARATOR;
+		return getSnapshot().getLogbackLoggingPath();
 	}
 
 	/**
@@ -481,9 +524,7 @@ public class LogSettings {
 	 * @return true if we are in debug mode.
 	 */
 	public static boolean inDebugMode() {
-		int debug = getIntegerValue(SETTING_DEBUG, 0);
-
-		return debug==1;
+		return getSnapshot().isDebugMode();
 	}
 	
 	public static void main(String[] args) {
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.openntf.base.logback.utils.StringUtils;
+import org.openntf.base.logback.utils.Utils;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Immutable snapshot of the XLogback settings. Values are resolved once from JVM properties, notes.ini 
+ * parameters and defaults, and parsed into typed values. So reading a setting is a map lookup.
+ * 
+ * {@link LogSettings} publishes the current snapshot and swaps it atomically on reload.
+ *
+ */
+public class SettingsSnapshot {
+
+	private final Map<String, String> strings = new HashMap<String, String>();
+	private final Map<String, Integer> integers = new HashMap<String, Integer>();
+	private final Map<String, Boolean> booleans = new HashMap<String, Boolean>();
+	private final Map<String, Level> levels = new HashMap<String, Level>();
+
+	private final String dominoProgramPath;
+	private final String dominoDataPath;
+	private final String dominoLoggingPath;
+	private final String logbackLoggingPath;
+	private final boolean debugMode;
+
+	private final long created = System.currentTimeMillis();
+
+	/**
+	 * @param jvmValues values from JVM properties without the prefix.
+	 * @param iniValues values from notes.ini without the prefix.
+	 * @param defaultValues default values.
+	 */
+	SettingsSnapshot(Map<String, String> jvmValues, Map<String, String> iniValues, Map<String, String> defaultValues) {
+		Map<String, String> jvm = toLowerCaseKeys(jvmValues);
+		Map<String, String> ini = toLowerCaseKeys(iniValues);
+		Map<String, String> defaults = toLowerCaseKeys(defaultValues);
+
+		Set<String> names = new HashSet<String>();
+		names.addAll(jvm.keySet());
+		names.addAll(ini.keySet());
+		names.addAll(defaults.keySet());
+
+		for(String name : names) {
+			resolve(name, jvm.get(name), ini.get(name), defaults.get(name));
+		}
+
+		// Constants are mostly used in their original case. Avoid lower-casing for them.
+		for(String name : defaultValues.keySet()) {
+			String key = name.toLowerCase(Locale.ENGLISH);
+			copy(key, name);
+		}
+
+		dominoProgramPath = Utils.toSafeFolder(getString(LogSettings.SETTING_DOMINO_PROGRAM, System.getProperty("notes.binary")));
+		dominoDataPath = resolveDominoDataPath();
+		dominoLoggingPath = resolveDominoLoggingPath();
+		logbackLoggingPath = resolveLogbackLoggingPath();
+		debugMode = getInteger(LogSettings.SETTING_DEBUG, 0) == 1;
+	}
+
+	private static Map<String, String> toLowerCaseKeys(Map<String, String> values) {
+		Map<String, String> result = new HashMap<String, String>();
+
+		for(Map.Entry<String, String> entry : values.entrySet()) {
+			result.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Same precedence with the earlier per-call lookups. Typed values fall back to the next source if 
+	 * the value could not be parsed.
+	 */
+	private void resolve(String name, String jvmValue, String iniValue, String defaultValue) {
+		if(StringUtils.isNotEmpty(jvmValue)) {
+			strings.put(name, jvmValue);
+		} else {
+			String value = StringUtils.defaultIfEmpty(iniValue, defaultValue);
+			if(value != null) {
+				strings.put(name, value);
+			}
+		}
+
+		String[] candidates = { jvmValue, iniValue, defaultValue };
+
+		for(String candidate : candidates) {
+			if(Utils.isInteger(candidate)) {
+				integers.put(name, Integer.valueOf(candidate));
+				break;
+			}
+		}
+
+		for(String candidate : candidates) {
+			if(Utils.isBoolean(candidate)) {
+				booleans.put(name, Boolean.valueOf(StringUtils.equalsIgnoreCase(candidate, "true")));
+				break;
+			}
+		}
+
+		Level level = null;
+		if(Utils.isLogLevel(jvmValue)) {
+			level = Level.toLevel(jvmValue);
+		} else if(Utils.isLogLevel(iniValue)) {
+			level = Level.toLevel(iniValue);
+		} else {
+			level = Level.toLevel(defaultValue, null);
+		}
+
+		if(level != null) {
+			levels.put(name, level);
+		}
+	}
+
+	private void copy(String from, String to) {
+		if(strings.containsKey(from)) strings.put(to, strings.get(from));
+		if(integers.containsKey(from)) integers.put(to, integers.get(from));
+		if(booleans.containsKey(from)) booleans.put(to, booleans.get(from));
+		if(levels.containsKey(from)) levels.put(to, levels.get(from));
+	}
+
+	private static <T> T lookup(Map<String, T> map, String name) {
+		if(StringUtils.isEmpty(name)) return null;
+
+		T value = map.get(name);
+
+		if(value == null) {
+			value = map.get(name.toLowerCase(Locale.ENGLISH));
+		}
+
+		return value;
+	}
+
+	/**
+	 * @return null if the value does not exist.
+	 */
+	public String getString(String name) {
+		return lookup(strings, name);
+	}
+
+	public String getString(String name, String defaultIfEmpty) {
+		String value = getString(name);
+		return StringUtils.isEmpty(value) ? defaultIfEmpty : value;
+	}
+
+	/**
+	 * @return null if the value does not exist or not integer.
+	 */
+	public Integer getInteger(String name) {
+		return lookup(integers, name);
+	}
+
+	public int getInteger(String name, int defaultIfEmpty) {
+		Integer value = getInteger(name);
+		return value == null ? defaultIfEmpty : value.intValue();
+	}
+
+	/**
+	 * @return null if the value does not exist or not boolean.
+	 */
+	public Boolean getBoolean(String name) {
+		return lookup(booleans, name);
+	}
+
+	/**
+	 * @return null if the value does not exist or not a log level.
+	 */
+	public Level getLevel(String name) {
+		return lookup(levels, name);
+	}
+
+	/**
+	 * @return names and values of all resolved settings, in lower case.
+	 */
+	public Map<String, String> getValues() {
+		Map<String, String> values = new HashMap<String, String>();
+
+		for(Map.Entry<String, String> entry : strings.entrySet()) {
+			values.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+		}
+
+		return Collections.unmodifiableMap(values);
+	}
+
+	private String resolveDominoDataPath() {
+		String pathData = getString(LogSettings.SETTING_DOMINO_DATA);
+		
+		if(StringUtils.isEmpty(pathData)) {
+			// This is compatible with Linux as well.
+			pathData = System.getProperty("user.dir");
+			
+			if(StringUtils.isNotEmpty(pathData) && !pathData.toLowerCase(Locale.ENGLISH).endsWith("data")) {
+				pathData += Utils.toSafeFolder(pathData) + "data";
+			}
+	
+		}
+		return Utils.toSafeFolder(pathData);
+	}
+
+	private String resolveDominoLoggingPath() {
+		String pathLogging = getString(LogSettings.SETTING_DOMINO_LOGGING);
+		
+		if(StringUtils.isEmpty(pathLogging)) {
+			pathLogging = Utils.toSafeFolder(dominoDataPath) + "IBM_TECHNICAL_SUPPORT";
+		}
+		return Utils.toSafeFolder(pathLogging);
+	}
+
+	private String resolveLogbackLoggingPath() {
+		if(StringUtils.isEmpty(dominoLoggingPath)) {
+			return Utils.toSafeFolder(System.getProperty("rcp.data"))+"logs";
+		}
+		
+		return Utils.toSafeFolder(dominoLoggingPath)+"xlogback"+Utils.FILE_SEPARATOR;
+	}
+
+	public String getDominoProgramPath() {
+		return dominoProgramPath;
+	}
+
+	public String getDominoDataPath() {
+		return dominoDataPath;
+	}
+
+	public String getDominoLoggingPath() {
+		return dominoLoggingPath;
+	}
+
+	public String getLogbackLoggingPath() {
+		return logbackLoggingPath;
+	}
+
+	public boolean isDebugMode() {
+		return debugMode;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+}
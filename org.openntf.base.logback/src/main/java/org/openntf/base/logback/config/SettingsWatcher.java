@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.config;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import org.openntf.base.logback.utils.Scheduler;
+
+/**
+ * Polls the notes.ini file for changes. Java 6 has no file watching API, so we compare the modification time 
+ * and the size periodically. A change is applied after the file stays the same for one more poll, so partial
+ * writes are not picked up.
+ * 
+ * Changed setting names are passed to the listener after the settings are reloaded.
+ *
+ */
+public class SettingsWatcher {
+
+	public interface Listener {
+		public void settingsChanged(Set<String> changedNames);
+	}
+
+	private final File file;
+	private final long interval;
+	private final Listener listener;
+
+	private long lastModified;
+	private long length;
+	private boolean pending = false;
+
+	private ScheduledFuture<?> task;
+
+	public SettingsWatcher(File file, long interval, Listener listener) {
+		this.file = file;
+		this.interval = interval;
+		this.listener = listener;
+
+		this.lastModified = file.lastModified();
+		this.length = file.length();
+	}
+
+	public synchronized void start() {
+		if(task == null) {
+			task = Scheduler.schedule(new Runnable() {
+				public void run() {
+					poll();
+				}
+			}, interval);
+		}
+	}
+
+	public synchronized void stop() {
+		if(task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	protected synchronized void poll() {
+		long currentModified = file.lastModified();
+		long currentLength = file.length();
+
+		if(currentModified != lastModified || currentLength != length) {
+			// Still changing. Wait for the next poll.
+			lastModified = currentModified;
+			length = currentLength;
+			pending = true;
+			return;
+		}
+
+		if(pending) {
+			pending = false;
+			apply();
+		}
+	}
+
+	private void apply() {
+		Map<String, String> oldValues = LogSettings.getSnapshot().getValues();
+		Map<String, String> newValues = LogSettings.reload().getValues();
+
+		Set<String> changed = new HashSet<String>();
+
+		for(Map.Entry<String, String> entry : newValues.entrySet()) {
+			if(! entry.getValue().equals(oldValues.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+
+		for(String name : oldValues.keySet()) {
+			if(! newValues.containsKey(name)) {
+				changed.add(name);
+			}
+		}
+
+		if(! changed.isEmpty()) {
+			listener.settingsChanged(changed);
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.config;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Elapsed times of startup phases, in the order they complete.
+ *
+ */
+public class StartupTimings {
+
+	private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+	private final long started;
+	private long lastMark;
+
+	public StartupTimings() {
+		this.started = System.nanoTime();
+		this.lastMark = started;
+	}
+
+	/**
+	 * Records the time since the previous mark for the given phase.
+	 */
+	public synchronized void mark(String phase) {
+		long now = System.nanoTime();
+		phases.put(phase, (now - lastMark) / 1000000L);
+		lastMark = now;
+	}
+
+	/**
+	 * @return milliseconds per phase.
+	 */
+	public synchronized Map<String, Long> getPhases() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(phases));
+	}
+
+	public synchronized long getTotal() {
+		return (lastMark - started) / 1000000L;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		for(Map.Entry<String, Long> phase : phases.entrySet()) {
+			sb.append(phase.getKey()).append('=').append(phase.getValue()).append("ms, ");
+		}
+
+		return sb.append("total=").append(getTotal()).append("ms").toString();
+	}
+
+}
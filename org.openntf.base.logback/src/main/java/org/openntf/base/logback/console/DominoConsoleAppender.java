@@ -17,6 +17,10 @@
 package org.openntf.base.logback.console;
 
 import org.eclipse.core.runtime.Platform;
+import org.openntf.base.logback.metrics.LatencyHistogram;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.metrics.StripedCounter;
+import org.openntf.base.logback.utils.ReentrancyGuard;
 
 import ch.qos.logback.core.AppenderBase;
 import ch.qos.logback.core.Layout;
@@ -25,9 +29,15 @@ public class DominoConsoleAppender<E> extends AppenderBase<E> {
 
 	private Layout<E> layout;
 	private IConsoleLogger console;
+
+	private StripedCounter events;
+	private LatencyHistogram writes;
 	
 	@Override
 	public void start() {
+		events = Metrics.counter(Metrics.name("appender", getName(), "events"));
+		writes = Metrics.histogram(Metrics.name("appender", getName(), "write"));
+
 		super.start();
 		
 		if (this.layout == null) {
@@ -66,14 +76,31 @@ public class DominoConsoleAppender<E> extends AppenderBase<E> {
 			return;
 		}
 		
-		String message;
-		if(null==layout) {
-			message = event.toString();
-		} else {
-			message = layout.doLayout(event);
+		if(! ReentrancyGuard.enter()) {
+			long dropped = ReentrancyGuard.getDroppedCount();
+			if(dropped == 1 || dropped % 1000 == 0) {
+				addWarn("Reentrant logging event dropped. Total dropped so far: " + dropped);
+			}
+			return;
 		}
 		
-		logMessage(message);
+		long started = System.nanoTime();
+
+		try {
+			String message;
+			if(null==layout) {
+				message = event.toString();
+			} else {
+				message = layout.doLayout(event);
+			}
+			
+			logMessage(message);
+		} finally {
+			ReentrancyGuard.exit();
+
+			events.increment();
+			writes.record(System.nanoTime() - started);
+		}
 	}
 
 }
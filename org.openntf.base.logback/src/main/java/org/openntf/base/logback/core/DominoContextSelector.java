@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openntf.base.logback.utils.Scheduler;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.ClassicConstants;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.selector.ContextSelector;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextListener;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.FilterReply;
+import ch.qos.logback.core.status.ErrorStatus;
+import ch.qos.logback.core.status.InfoStatus;
+
+/**
+ * Gives each NSF its own {@link LoggerContext}, so loggers created by an application go away with its 
+ * classloader. Other classloaders (plugins, DOTS, servlets) use the default context.
+ * 
+ * Contexts are kept in a map with weak classloader keys. When an NSF module is unloaded, its context is 
+ * stopped and removed. Looking up an existing context takes no lock.
+ * 
+ * The context is chosen by the context classloader, not by the caller. XLogback classes may be first used on
+ * an XPages request thread, so they take their loggers from {@link #getDefaultLogger(String)}.
+ * 
+ * An NSF may have its own <code>logback.xml</code>. Otherwise events are passed to the appenders of the 
+ * default root logger, and levels and turbo filters of the default context apply.
+ *
+ */
+public class DominoContextSelector implements ContextSelector {
+
+	private static final String MODULE_CLASSLOADER = "com.ibm.domino.xsp.module.nsf.ModuleClassLoader";
+	private static final String MODULE_CONFIG_FILE = "logback.xml";
+	private static final long EXPUNGE_INTERVAL = 60000L;
+
+	private static volatile DominoContextSelector instance;
+
+	private final LoggerContext defaultContext;
+	private final Map<LoaderKey, LoggerContext> contexts = new ConcurrentHashMap<LoaderKey, LoggerContext>();
+	private final ReferenceQueue<ClassLoader> unloaded = new ReferenceQueue<ClassLoader>();
+
+	/**
+	 * Weak classloader reference compared by identity.
+	 */
+	private static class LoaderKey extends WeakReference<ClassLoader> {
+		private final int hash;
+		private final String contextName;
+
+		private LoaderKey(ClassLoader cl, String contextName, ReferenceQueue<ClassLoader> queue) {
+			super(cl, queue);
+			this.hash = System.identityHashCode(cl);
+			this.contextName = contextName;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof LoaderKey)) return false;
+
+			Object referent = get();
+			return referent != null && referent == ((LoaderKey) obj).get();
+		}
+	}
+
+	/**
+	 * Called by Logback with the default context.
+	 */
+	public DominoContextSelector(LoggerContext defaultContext) {
+		this.defaultContext = defaultContext;
+		this.defaultContext.addListener(new LevelMirror());
+
+		instance = this;
+
+		Scheduler.schedule(new Runnable() {
+			public void run() {
+				synchronized(DominoContextSelector.this) {
+					expunge();
+				}
+			}
+		}, EXPUNGE_INTERVAL);
+	}
+
+	/**
+	 * Makes Logback use this selector. Has to be called before the logger factory is initialized. 
+	 * A selector given by the administrator is respected.
+	 * 
+	 * @return true if the selector will be used.
+	 */
+	public static boolean install() {
+		String current = System.getProperty(ClassicConstants.LOGBACK_CONTEXT_SELECTOR);
+
+		if(current == null) {
+			System.setProperty(ClassicConstants.LOGBACK_CONTEXT_SELECTOR, DominoContextSelector.class.getName());
+			return true;
+		}
+
+		return current.equals(DominoContextSelector.class.getName());
+	}
+
+	/**
+	 * @return the selector in use, null if not installed.
+	 */
+	public static DominoContextSelector getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Loggers of XLogback itself belong to the default context. A logger bound to an NSF context would go
+	 * silent once that NSF is unloaded.
+	 */
+	public static org.slf4j.Logger getDefaultLogger(String name) {
+		return getDefaultLoggerFactory().getLogger(name);
+	}
+
+	public static org.slf4j.Logger getDefaultLogger(Class<?> clazz) {
+		return getDefaultLogger(clazz.getName());
+	}
+
+	/**
+	 * @return the default context, or the one Logback gives if the selector is not in use.
+	 */
+	public static ILoggerFactory getDefaultLoggerFactory() {
+		DominoContextSelector selector = instance;
+
+		if(selector == null) {
+			// Initializes Logback, which creates the selector if it's installed.
+			ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+
+			selector = instance;
+			if(selector == null) {
+				return factory;
+			}
+		}
+
+		return selector.getDefaultLoggerContext();
+	}
+
+	public LoggerContext getLoggerContext() {
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+
+		if(cl == null || ! cl.getClass().getName().startsWith(MODULE_CLASSLOADER)) {
+			return defaultContext;
+		}
+
+		LoggerContext context = contexts.get(new LoaderKey(cl, null, null));
+
+		if(context != null) {
+			return context;
+		}
+
+		synchronized(this) {
+			expunge();
+
+			context = contexts.get(new LoaderKey(cl, null, null));
+
+			if(context == null) {
+				String name = getModuleName(cl);
+
+				context = createContext(cl, name);
+				contexts.put(new LoaderKey(cl, name, unloaded), context);
+			}
+
+			return context;
+		}
+	}
+
+	public LoggerContext getLoggerContext(String name) {
+		if(defaultContext.getName().equals(name)) {
+			return defaultContext;
+		}
+
+		for(LoggerContext context : contexts.values()) {
+			if(context.getName().equals(name)) {
+				return context;
+			}
+		}
+
+		return null;
+	}
+
+	public LoggerContext getDefaultLoggerContext() {
+		return defaultContext;
+	}
+
+	public synchronized LoggerContext detachLoggerContext(String name) {
+		for(Iterator<Map.Entry<LoaderKey, LoggerContext>> iterator = contexts.entrySet().iterator(); iterator.hasNext();) {
+			LoggerContext context = iterator.next().getValue();
+
+			if(context.getName().equals(name)) {
+				iterator.remove();
+				return context;
+			}
+		}
+
+		return null;
+	}
+
+	public synchronized List<String> getContextNames() {
+		List<String> names = new ArrayList<String>();
+
+		names.add(defaultContext.getName());
+		for(LoggerContext context : contexts.values()) {
+			names.add(context.getName());
+		}
+
+		return names;
+	}
+
+	/**
+	 * @return number of NSF contexts.
+	 */
+	public synchronized int getContextCount() {
+		return contexts.size();
+	}
+
+	/**
+	 * Stops contexts of unloaded modules.
+	 */
+	private void expunge() {
+		Reference<? extends ClassLoader> reference;
+
+		while((reference = unloaded.poll()) != null) {
+			LoaderKey key = (LoaderKey) reference;
+
+			// Cleared keys are only equal to themselves.
+			LoggerContext context = contexts.remove(key);
+
+			if(context != null) {
+				context.stop();
+				defaultContext.getStatusManager().add(new InfoStatus("Logger context of " + key.contextName + " removed.", this));
+			}
+		}
+	}
+
+	private LoggerContext createContext(ClassLoader cl, String name) {
+		LoggerContext context = new LoggerContext();
+		context.setName(name);
+
+		URL config = findModuleConfig(cl);
+
+		if(config != null) {
+			try {
+				JoranConfigurator joran = new JoranConfigurator();
+				joran.setContext(context);
+				joran.doConfigure(config);
+				return context;
+			} catch(Exception e) {
+				context.getStatusManager().add(new ErrorStatus("Unable to configure " + name + " from " + config, this, e));
+				context.reset();
+			}
+		}
+
+		bridge(context);
+		return context;
+	}
+
+	/**
+	 * Only the configuration file of the module itself is considered, not the ones from parent classloaders.
+	 */
+	private URL findModuleConfig(ClassLoader cl) {
+		URL config = cl.getResource(MODULE_CONFIG_FILE);
+
+		if(config == null) return null;
+
+		ClassLoader parent = cl.getParent();
+		if(parent != null && config.equals(parent.getResource(MODULE_CONFIG_FILE))) {
+			return null;
+		}
+
+		return config;
+	}
+
+	/**
+	 * Events go to the appenders of the default root logger. Explicit levels of the default context are copied
+	 * and kept in sync by {@link LevelMirror}.
+	 */
+	private void bridge(LoggerContext context) {
+		for(Logger logger : defaultContext.getLoggerList()) {
+			if(logger.getLevel() != null) {
+				context.getLogger(logger.getName()).setLevel(logger.getLevel());
+			}
+		}
+
+		context.addTurboFilter(new DefaultTurboFilters());
+
+		BridgeAppender appender = new BridgeAppender();
+		appender.setContext(context);
+		appender.setName("default");
+		appender.start();
+
+		Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+		root.addAppender(appender);
+
+		context.putObject(BridgeAppender.class.getName(), appender);
+	}
+
+	private static boolean isBridged(LoggerContext context) {
+		return context.getObject(BridgeAppender.class.getName()) != null;
+	}
+
+	private String getModuleName(ClassLoader cl) {
+		try {
+			Method getModule = cl.getClass().getMethod("getModule", new Class[0]);
+			Object module = getModule.invoke(cl, new Object[0]);
+
+			if(module != null) {
+				Method getDatabasePath = module.getClass().getMethod("getDatabasePath", new Class[0]);
+				Object path = getDatabasePath.invoke(module, new Object[0]);
+
+				if(path != null) {
+					return path.toString();
+				}
+			}
+		} catch(Exception e) {
+			// Not available in this version
+		}
+
+		return "module@" + Integer.toHexString(System.identityHashCode(cl));
+	}
+
+	private class BridgeAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+		@Override
+		protected void append(ILoggingEvent event) {
+			defaultContext.getLogger(Logger.ROOT_LOGGER_NAME).callAppenders(event);
+		}
+	}
+
+	/**
+	 * Applies the current turbo filters of the default context, so they survive its reconfiguration.
+	 */
+	private class DefaultTurboFilters extends TurboFilter {
+		public DefaultTurboFilters() {
+			start();
+		}
+
+		@Override
+		public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+			if(defaultContext.getTurboFilterList().size() == 0) {
+				return FilterReply.NEUTRAL;
+			}
+
+			return defaultContext.getTurboFilterList().getTurboFilterChainDecision(marker, logger, level, format, params, t);
+		}
+	}
+
+	/**
+	 * Level changes in the default context (e.g. root level tuning or runtime overrides) are applied to 
+	 * bridged contexts.
+	 */
+	private class LevelMirror implements LoggerContextListener {
+		public boolean isResetResistant() {
+			return true;
+		}
+
+		public void onStart(LoggerContext context) {
+		}
+
+		public void onReset(LoggerContext context) {
+		}
+
+		public void onStop(LoggerContext context) {
+		}
+
+		public void onLevelChange(Logger logger, Level level) {
+			synchronized(DominoContextSelector.this) {
+				for(LoggerContext context : contexts.values()) {
+					if(isBridged(context)) {
+						context.getLogger(logger.getName()).setLevel(level);
+					}
+				}
+			}
+		}
+	}
+
+}
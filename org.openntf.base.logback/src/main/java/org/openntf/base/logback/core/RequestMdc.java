@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.MDC;
+
+/**
+ * Fills the standard MDC keys for a request and clears them at the end. Used by the XSP plugin for XPages
+ * requests. Servlets can call it directly:
+ * 
+ * <pre>
+ * RequestMdc.begin(app, request.getRemoteUser(), request.getHeader(RequestMdc.REQUEST_ID_HEADER), request.getServletPath());
+ * try {
+ *     ...
+ * } finally {
+ *     RequestMdc.end();
+ * }
+ * </pre>
+ * 
+ * Application and user names repeat a lot, so they are interned into a bounded pool. Queued events then 
+ * share the same strings.
+ *
+ */
+public class RequestMdc {
+
+	public static final String KEY_APP = "app";
+	public static final String KEY_AGENT = "agent";
+	public static final String KEY_USER = "user";
+	public static final String KEY_REQUEST_ID = "requestId";
+	public static final String KEY_PAGE = "page";
+
+	public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+	private static final int MAX_POOL_SIZE = 4096;
+
+	private static final ConcurrentMap<String, String> pool = new ConcurrentHashMap<String, String>();
+	private static final AtomicLong requestCounter = new AtomicLong();
+	private static final String requestPrefix = Long.toString(System.currentTimeMillis(), 36) + "-";
+
+	/**
+	 * Sets the request keys. Null values remove the key, so nothing is left from a previous request on 
+	 * the same thread.
+	 * 
+	 * @param requestId if null, a new id is generated.
+	 */
+	public static void begin(String app, String user, String requestId, String page) {
+		put(KEY_APP, intern(app));
+		put(KEY_USER, intern(user));
+		put(KEY_REQUEST_ID, requestId != null ? requestId : nextRequestId());
+		put(KEY_PAGE, intern(page));
+	}
+
+	public static void end() {
+		MDC.remove(KEY_APP);
+		MDC.remove(KEY_USER);
+		MDC.remove(KEY_REQUEST_ID);
+		MDC.remove(KEY_PAGE);
+	}
+
+	public static String nextRequestId() {
+		return requestPrefix + Long.toString(requestCounter.incrementAndGet(), 36);
+	}
+
+	/**
+	 * @return the pooled instance of the value. Values are not pooled after the pool is full.
+	 */
+	public static String intern(String value) {
+		if(value == null) return null;
+
+		String pooled = pool.get(value);
+		if(pooled != null) return pooled;
+
+		if(pool.size() >= MAX_POOL_SIZE) return value;
+
+		pooled = pool.putIfAbsent(value, value);
+		return pooled != null ? pooled : value;
+	}
+
+	private static void put(String key, String value) {
+		if(value == null) {
+			MDC.remove(key);
+		} else {
+			MDC.put(key, value);
+		}
+	}
+
+}
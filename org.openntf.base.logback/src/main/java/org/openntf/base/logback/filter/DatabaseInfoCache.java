@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lotus.domino.Database;
+import lotus.domino.NotesException;
+
+import org.openntf.base.logback.utils.Utils;
+
+/**
+ * Bounded LRU cache for {@link DatabaseSnapshot} values, keyed by the replica id and the effective user name. 
+ * Domino creates new database objects for each request, so the key is built from values instead of the 
+ * object. A hit needs two cheap calls instead of reading the path, the URL and the access level.
+ * 
+ * Entries expire after a while, so ACL changes will be reflected eventually.
+ *
+ */
+public class DatabaseInfoCache {
+
+	private static final int DEFAULT_MAX_SIZE = 256;
+	private static final long DEFAULT_EXPIRY = 10 * 60 * 1000L;
+
+	private final int maxSize;
+	private final long expiry;
+
+	private final Map<String, DatabaseSnapshot> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public DatabaseInfoCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRY);
+	}
+
+	public DatabaseInfoCache(final int maxSize, long expiry) {
+		this.maxSize = maxSize;
+		this.expiry = expiry;
+
+		this.cache = new LinkedHashMap<String, DatabaseSnapshot>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, DatabaseSnapshot> eldest) {
+				return size() > DatabaseInfoCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return snapshot for the database, from the cache if possible.
+	 */
+	public DatabaseSnapshot get(Database database) throws NotesException {
+		String replicaId = database.getReplicaID();
+		String key = replicaId + "|" + database.getParent().getEffectiveUserName();
+
+		DatabaseSnapshot snapshot;
+
+		synchronized(cache) {
+			snapshot = cache.get(key);
+		}
+
+		if(snapshot != null && System.currentTimeMillis() - snapshot.getCreated() < expiry) {
+			hits.incrementAndGet();
+			return snapshot;
+		}
+
+		misses.incrementAndGet();
+		snapshot = new DatabaseSnapshot(replicaId, database.getFilePath(), database.getNotesURL(), Utils.getAccessLevel(database));
+
+		synchronized(cache) {
+			cache.put(key, snapshot);
+		}
+
+		return snapshot;
+	}
+
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+/**
+ * Immutable copy of the {@link lotus.domino.Database} metadata used by appenders. Safe to use after the
+ * database is recycled and from any thread.
+ *
+ */
+public class DatabaseSnapshot {
+
+	private final String replicaId;
+	private final String filePath;
+	private final String notesUrl;
+	private final String accessLevel;
+	private final long created;
+
+	public DatabaseSnapshot(String replicaId, String filePath, String notesUrl, String accessLevel) {
+		this.replicaId = replicaId;
+		this.filePath = filePath;
+		this.notesUrl = notesUrl;
+		this.accessLevel = accessLevel;
+		this.created = System.currentTimeMillis();
+	}
+
+	public String getReplicaId() {
+		return replicaId;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public String getNotesUrl() {
+		return notesUrl;
+	}
+
+	public String getAccessLevel() {
+		return accessLevel;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	@Override
+	public String toString() {
+		return "[DB:" + filePath + "]";
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+/**
+ * Immutable copy of the {@link lotus.domino.Document} metadata used by appenders.
+ *
+ */
+public class DocumentSnapshot {
+
+	private final String noteId;
+	private final String notesUrl;
+
+	public DocumentSnapshot(String noteId, String notesUrl) {
+		this.noteId = noteId;
+		this.notesUrl = notesUrl;
+	}
+
+	public String getNoteId() {
+		return noteId;
+	}
+
+	public String getNotesUrl() {
+		return notesUrl;
+	}
+
+	@Override
+	public String toString() {
+		return "[DocId:" + noteId + "]";
+	}
+
+}
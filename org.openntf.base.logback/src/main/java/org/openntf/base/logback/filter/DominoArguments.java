@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import lotus.domino.Database;
+import lotus.domino.Document;
+import lotus.domino.NotesException;
+
+/**
+ * Converts {@link Document} and {@link Database} arguments of a logging event into {@link DocumentSnapshot} 
+ * and {@link DatabaseSnapshot} values. Arrays are never changed in place: the argument array may belong to 
+ * the caller or be shared by appenders on other threads.
+ *
+ */
+public class DominoArguments {
+
+	private static final DatabaseInfoCache databaseCache = new DatabaseInfoCache();
+
+	private DominoArguments() {
+	}
+
+	/**
+	 * @return the same array if it has no Domino objects, otherwise a copy with snapshots.
+	 */
+	public static Object[] snapshot(Object[] args) {
+		if(args == null) return null;
+
+		Object[] copy = args;
+
+		for(int i=0; i<args.length; i++) {
+			Object snapshot;
+
+			if(args[i] instanceof Document) {
+				snapshot = snapshot((Document) args[i]);
+			} else if(args[i] instanceof Database) {
+				snapshot = snapshot((Database) args[i]);
+			} else {
+				continue;
+			}
+
+			if(copy == args) {
+				copy = args.clone();
+			}
+			copy[i] = snapshot;
+		}
+
+		return copy;
+	}
+
+	public static DocumentSnapshot snapshot(Document document) {
+		try {
+			return new DocumentSnapshot(document.getNoteID(), document.getNotesURL());
+		} catch (NotesException e) {
+			// Probably recycled...
+			return new DocumentSnapshot("", "");
+		}
+	}
+
+	public static DatabaseSnapshot snapshot(Database database) {
+		try {
+			return databaseCache.get(database);
+		} catch (NotesException e) {
+			// Probably recycled...
+			return new DatabaseSnapshot("", "", "", "N/A");
+		}
+	}
+
+	public static DatabaseInfoCache getDatabaseCache() {
+		return databaseCache;
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import org.openntf.base.logback.buffer.UnitOfWork;
+import org.openntf.base.logback.config.LevelOverrides;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.filter.ThresholdFilter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Threshold filter letting events through if their logger level has been lowered at runtime by 
+ * {@link LevelOverrides}, if their MDC matches {@link MdcThresholds}, or if they are flushed from a failed
+ * {@link UnitOfWork}. Events above the threshold cost 
+ * nothing extra.
+ *
+ */
+public class LevelThresholdFilter extends ThresholdFilter {
+
+	private MdcThresholds mdcThresholds;
+
+	@Override
+	public FilterReply decide(ILoggingEvent event) {
+		FilterReply reply = super.decide(event);
+
+		if(reply == FilterReply.DENY) {
+			if(UnitOfWork.isFlushing()) {
+				return FilterReply.NEUTRAL;
+			}
+
+			Level override = LevelOverrides.getLevel(event.getLoggerName());
+
+			if(override != null && event.getLevel().isGreaterOrEqual(override)) {
+				return FilterReply.NEUTRAL;
+			}
+
+			if(mdcThresholds != null && ! mdcThresholds.isEmpty()) {
+				Level mdcLevel = mdcThresholds.getLevel(event.getMDCPropertyMap());
+
+				if(mdcLevel != null && event.getLevel().isGreaterOrEqual(mdcLevel)) {
+					return FilterReply.NEUTRAL;
+				}
+			}
+		}
+
+		return reply;
+	}
+
+	public MdcThresholds getMdcThresholds() {
+		return mdcThresholds;
+	}
+
+	public void setMdcThresholds(MdcThresholds mdcThresholds) {
+		this.mdcThresholds = mdcThresholds;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Accepts events below the logger level if the MDC of the current thread matches one of the 
+ * {@link MdcThresholds} rules. Accepted events skip the logger level check, so they are created only 
+ * for the matching users or applications.
+ * 
+ * Events enabled by the logger level anyway are left to the other filters.
+ * 
+ * Without rules, the cost is a single array length check.
+ *
+ */
+public class MdcThresholdFilter extends TurboFilter {
+
+	private MdcThresholds thresholds = new MdcThresholds();
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+		if(level == null || !isStarted() || thresholds.isEmpty()) {
+			return FilterReply.NEUTRAL;
+		}
+
+		// Enabled anyway. ACCEPT would also skip the other turbo filters.
+		if(logger == null || level.isGreaterOrEqual(logger.getEffectiveLevel())) {
+			return FilterReply.NEUTRAL;
+		}
+
+		Level threshold = thresholds.getLevel();
+
+		if(threshold != null && level.isGreaterOrEqual(threshold)) {
+			return FilterReply.ACCEPT;
+		}
+
+		return FilterReply.NEUTRAL;
+	}
+
+	public MdcThresholds getThresholds() {
+		return thresholds;
+	}
+
+	public void setThresholds(MdcThresholds thresholds) {
+		this.thresholds = thresholds;
+	}
+
+	/**
+	 * For configuration files. See {@link MdcThresholds} for the format.
+	 */
+	public void setRules(String rules) {
+		for(String invalid : thresholds.setRules(rules)) {
+			addWarn("Invalid MDC threshold rule: " + invalid);
+		}
+	}
+
+}
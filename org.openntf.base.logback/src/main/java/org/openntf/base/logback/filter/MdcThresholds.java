@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openntf.base.logback.utils.StringUtils;
+import org.slf4j.MDC;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Levels for specific MDC values, e.g. DEBUG for a single user or application. Rules are given as
+ * <code>key:value=LEVEL</code>, separated by semicolons:
+ * 
+ * <pre>app:crm.nsf=DEBUG;user:CN=Jane Doe/O=Acme=TRACE</pre>
+ * 
+ * Values are matched exactly, case sensitive. Rules can be replaced at runtime, lookups don't lock.
+ *
+ */
+public class MdcThresholds {
+
+	private static class KeyLevels {
+		private final String key;
+		private final Map<String, Level> levels = new HashMap<String, Level>();
+
+		private KeyLevels(String key) {
+			this.key = key;
+		}
+	}
+
+	private static final KeyLevels[] EMPTY = new KeyLevels[0];
+
+	private volatile KeyLevels[] keyLevels = EMPTY;
+	private volatile String rules = "";
+
+	/**
+	 * Replaces all rules. Invalid rules are skipped.
+	 * 
+	 * @return invalid rules, empty if none.
+	 */
+	public List<String> setRules(String rules) {
+		List<String> invalid = new ArrayList<String>();
+		List<KeyLevels> parsed = new ArrayList<KeyLevels>();
+
+		if(StringUtils.isNotEmpty(rules)) {
+			for(String rule : rules.split(";")) {
+				rule = rule.trim();
+				if(rule.length() == 0) continue;
+
+				// Values like Notes names may contain '=', so the level is after the last one.
+				int keyEnd = rule.indexOf(':');
+				int levelStart = rule.lastIndexOf('=');
+				Level level = (levelStart > keyEnd) ? Level.toLevel(rule.substring(levelStart + 1).trim(), null) : null;
+
+				if(keyEnd < 1 || level == null) {
+					invalid.add(rule);
+					continue;
+				}
+
+				String key = rule.substring(0, keyEnd).trim();
+				String value = rule.substring(keyEnd + 1, levelStart).trim();
+
+				findOrAdd(parsed, key).levels.put(value, level);
+			}
+		}
+
+		this.keyLevels = parsed.toArray(new KeyLevels[parsed.size()]);
+		this.rules = (rules == null) ? "" : rules;
+
+		return invalid;
+	}
+
+	private static KeyLevels findOrAdd(List<KeyLevels> parsed, String key) {
+		for(KeyLevels candidate : parsed) {
+			if(candidate.key.equals(key)) {
+				return candidate;
+			}
+		}
+
+		KeyLevels keyLevel = new KeyLevels(key);
+		parsed.add(keyLevel);
+		return keyLevel;
+	}
+
+	public String getRules() {
+		return rules;
+	}
+
+	public boolean isEmpty() {
+		return keyLevels.length == 0;
+	}
+
+	/**
+	 * @return lowest level matching the MDC of the current thread, null if none.
+	 */
+	public Level getLevel() {
+		KeyLevels[] current = keyLevels;
+		Level lowest = null;
+
+		for(int i=0; i<current.length; i++) {
+			String value = MDC.get(current[i].key);
+
+			if(value != null) {
+				lowest = lower(lowest, current[i].levels.get(value));
+			}
+		}
+
+		return lowest;
+	}
+
+	/**
+	 * @return lowest level matching the given MDC values, null if none.
+	 */
+	public Level getLevel(Map<String, String> mdc) {
+		KeyLevels[] current = keyLevels;
+		Level lowest = null;
+
+		if(mdc == null) return null;
+
+		for(int i=0; i<current.length; i++) {
+			String value = mdc.get(current[i].key);
+
+			if(value != null) {
+				lowest = lower(lowest, current[i].levels.get(value));
+			}
+		}
+
+		return lowest;
+	}
+
+	private static Level lower(Level current, Level candidate) {
+		if(candidate == null) return current;
+		if(current == null) return candidate;
+
+		return candidate.isGreaterOrEqual(current) ? current : candidate;
+	}
+
+}
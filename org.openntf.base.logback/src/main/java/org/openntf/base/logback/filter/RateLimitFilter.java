@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.openntf.base.logback.utils.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Token bucket rate limiting for appenders. Each logger has its own bucket. Events with a marker use a 
+ * separate bucket for the logger and marker pair.
+ * 
+ * Buckets are kept as a theoretical arrival time in a single atomic value, so accepting or rejecting an event
+ * is a map lookup and a compare-and-set.
+ * 
+ * Suppressed events are reported periodically in one summary line.
+ *
+ */
+public class RateLimitFilter extends Filter<ILoggingEvent> {
+
+	private static final Logger logger = DominoContextSelector.getDefaultLogger(RateLimitFilter.class);
+
+	private static final int MAX_BUCKETS = 1000;
+	private static final String OVERFLOW_KEY = "*";
+	private static final int SUMMARY_TOP = 5;
+
+	private int rate = 10;
+	private int burst = 50;
+	private long summaryInterval = 60000L;
+
+	private long interval;
+	private long tolerance;
+
+	private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private final AtomicLong suppressedCount = new AtomicLong();
+
+	private ScheduledFuture<?> summaryTask;
+
+	@Override
+	public void start() {
+		if(rate <= 0) {
+			addError("Rate should be positive for the rate limit filter.");
+			return;
+		}
+
+		interval = 1000000000L / rate;
+		tolerance = interval * Math.max(1, burst);
+
+		summaryTask = Scheduler.schedule(new Runnable() {
+			public void run() {
+				report();
+			}
+		}, summaryInterval);
+
+		super.start();
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+
+		if(summaryTask != null) {
+			summaryTask.cancel(false);
+			summaryTask = null;
+		}
+
+		report();
+		buckets.clear();
+	}
+
+	@Override
+	public FilterReply decide(ILoggingEvent event) {
+		if(!isStarted()) {
+			return FilterReply.NEUTRAL;
+		}
+
+		Bucket bucket = getBucket(event);
+
+		if(bucket.tryAcquire(System.nanoTime(), interval, tolerance)) {
+			return FilterReply.NEUTRAL;
+		}
+
+		bucket.suppressed.incrementAndGet();
+		suppressedCount.incrementAndGet();
+
+		return FilterReply.DENY;
+	}
+
+	private Bucket getBucket(ILoggingEvent event) {
+		Marker marker = event.getMarker();
+		String key = (marker == null) ? event.getLoggerName() : event.getLoggerName() + "|" + marker.getName();
+
+		Bucket bucket = buckets.get(key);
+
+		if(bucket == null) {
+			// Keys beyond the limit share one bucket.
+			if(buckets.size() >= MAX_BUCKETS) {
+				key = OVERFLOW_KEY;
+				bucket = buckets.get(key);
+			}
+
+			if(bucket == null) {
+				bucket = new Bucket(key);
+				Bucket existing = buckets.putIfAbsent(key, bucket);
+				if(existing != null) {
+					bucket = existing;
+				}
+			}
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Logs the suppressed events since the last report and removes idle buckets.
+	 */
+	protected void report() {
+		long now = System.nanoTime();
+		long total = 0;
+		List<Bucket> suppressed = new ArrayList<Bucket>();
+
+		for(Iterator<Bucket> iterator = buckets.values().iterator(); iterator.hasNext();) {
+			Bucket bucket = iterator.next();
+			long count = bucket.suppressed.getAndSet(0);
+
+			if(count > 0) {
+				bucket.reported = count;
+				total += count;
+				suppressed.add(bucket);
+			} else if(now - bucket.tat.get() > tolerance) {
+				// Full and idle
+				iterator.remove();
+			}
+		}
+
+		if(total == 0) {
+			return;
+		}
+
+		Collections.sort(suppressed, new Comparator<Bucket>() {
+			public int compare(Bucket b1, Bucket b2) {
+				return b1.reported < b2.reported ? 1 : (b1.reported > b2.reported ? -1 : 0);
+			}
+		});
+
+		StringBuilder top = new StringBuilder();
+		for(int i=0; i < suppressed.size() && i < SUMMARY_TOP; i++) {
+			if(i > 0) top.append(", ");
+			top.append(suppressed.get(i).key).append(" (").append(suppressed.get(i).reported).append(")");
+		}
+
+		logger.warn("Rate limit for [{}] suppressed {} events in the last {} seconds. Top: {}", 
+				new Object[] { getName(), total, summaryInterval / 1000, top });
+	}
+
+	public int getRate() {
+		return rate;
+	}
+
+	/**
+	 * Events per second allowed for each bucket.
+	 */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Number of events allowed at once after a quiet period.
+	 */
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public long getSummaryInterval() {
+		return summaryInterval;
+	}
+
+	/**
+	 * Interval (in milliseconds) for the summary of suppressed events.
+	 */
+	public void setSummaryInterval(long summaryInterval) {
+		this.summaryInterval = summaryInterval;
+	}
+
+	/**
+	 * @return total number of suppressed events.
+	 */
+	public long getSuppressedCount() {
+		return suppressedCount.get();
+	}
+
+	private static class Bucket {
+		private final String key;
+		private final AtomicLong tat;
+		private final AtomicLong suppressed = new AtomicLong();
+		private long reported;
+
+		Bucket(String key) {
+			this.key = key;
+			this.tat = new AtomicLong(System.nanoTime());
+		}
+
+		/**
+		 * Each event moves the theoretical arrival time by the interval. Events are rejected if it would be 
+		 * too far in the future.
+		 */
+		boolean tryAcquire(long now, long interval, long tolerance) {
+			for(;;) {
+				long current = tat.get();
+				long next = Math.max(current, now) + interval;
+
+				if(next - now > tolerance) {
+					return false;
+				}
+
+				if(tat.compareAndSet(current, next)) {
+					return true;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.layout;
+
+import org.openntf.base.logback.utils.StackTraceRenderer;
+
+import ch.qos.logback.classic.html.DefaultThrowableRenderer;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.helpers.Transform;
+import ch.qos.logback.core.html.IThrowableRenderer;
+
+/**
+ * Throwable renderer for the HTMLLayout using the {@link StackTraceRenderer}. Output is the same as the
+ * default renderer, except folded and cut frames.
+ *
+ */
+public class HtmlStackTraceRenderer implements IThrowableRenderer<ILoggingEvent> {
+
+	private static final String TRACE_PREFIX = "<br />&nbsp;&nbsp;&nbsp;&nbsp;";
+
+	private final DefaultThrowableRenderer defaultRenderer = new DefaultThrowableRenderer();
+
+	public void render(final StringBuilder sbuf, ILoggingEvent event) {
+		IThrowableProxy tp = event.getThrowableProxy();
+
+		if(!(tp instanceof ThrowableProxy)) {
+			defaultRenderer.render(sbuf, event);
+			return;
+		}
+
+		sbuf.append("<tr><td class=\"Exception\" colspan=\"6\">");
+
+		StackTraceRenderer.getDefault().visit(((ThrowableProxy) tp).getThrowable(), new StackTraceRenderer.LineVisitor() {
+			public void header(String line, boolean cause) {
+				if(cause) {
+					sbuf.append("<br />");
+				}
+				sbuf.append(Transform.escapeTags(line)).append(CoreConstants.LINE_SEPARATOR);
+			}
+
+			public void frame(String line) {
+				sbuf.append(TRACE_PREFIX).append(Transform.escapeTags(line)).append(CoreConstants.LINE_SEPARATOR);
+			}
+		});
+
+		sbuf.append("</td></tr>");
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.layout;
+
+import org.openntf.base.logback.utils.StackTraceRenderer;
+
+import ch.qos.logback.classic.pattern.ThrowableProxyConverter;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+
+/**
+ * Throwable converter using the {@link StackTraceRenderer}. The first option limits the number of frames, 
+ * like the standard converter. Deserialized events are rendered by the standard converter.
+ * 
+ * Use with <code>&lt;conversionRule conversionWord="ex" converterClass="org.openntf.base.logback.layout.StackTraceConverter" /&gt;</code>
+ *
+ */
+public class StackTraceConverter extends ThrowableProxyConverter {
+
+	private StackTraceRenderer renderer;
+
+	@Override
+	public void start() {
+		super.start();
+
+		// Without an option, the default renderer is looked up on each call. It may be replaced on reconfiguration.
+		String depth = getFirstOption();
+		if(depth != null) {
+			if("short".equalsIgnoreCase(depth)) {
+				renderer = new StackTraceRenderer(1, StackTraceRenderer.DEFAULT_FOLDED_PACKAGES);
+			} else if(! "full".equalsIgnoreCase(depth)) {
+				try {
+					renderer = new StackTraceRenderer(Integer.parseInt(depth), StackTraceRenderer.DEFAULT_FOLDED_PACKAGES);
+				} catch(NumberFormatException e) {
+					// Already reported by the parent.
+				}
+			}
+		}
+	}
+
+	@Override
+	protected String throwableProxyToString(IThrowableProxy tp) {
+		if(tp instanceof ThrowableProxy) {
+			StackTraceRenderer current = (renderer != null) ? renderer : StackTraceRenderer.getDefault();
+			return current.render(((ThrowableProxy) tp).getThrowable()) + CoreConstants.LINE_SEPARATOR;
+		}
+		return super.throwableProxyToString(tp);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram in microseconds. Each power of two is split into four buckets, so values are 
+ * approximated within 25%. Recording is two atomic increments on different cache lines and does not 
+ * allocate. The count is summed from the buckets when read. Percentiles are reported as the upper bound of
+ * their bucket.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 4;
+	private static final int BUCKETS = 160;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final StripedCounter totalNanos = new StripedCounter();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		long micros = nanos / 1000L;
+		counts.incrementAndGet(bucketOf(micros));
+		totalNanos.add(nanos);
+
+		long max;
+		while(nanos > (max = maxNanos.get())) {
+			if(maxNanos.compareAndSet(max, nanos)) break;
+		}
+	}
+
+	private static int bucketOf(long micros) {
+		if(micros < SUB_BUCKETS) return (int) Math.max(0, micros);
+
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >> (exponent - 2)) & (SUB_BUCKETS - 1);
+
+		return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+	}
+
+	/**
+	 * @return the lowest value above the bucket, in microseconds.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if(bucket < SUB_BUCKETS) return bucket + 1;
+
+		int exponent = bucket / SUB_BUCKETS + 1;
+		int sub = bucket % SUB_BUCKETS;
+
+		return (long) (SUB_BUCKETS + sub + 1) << (exponent - 2);
+	}
+
+	public long getCount() {
+		long n = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			n += counts.get(i);
+		}
+		return n;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	public long getMeanMicros() {
+		long n = getCount();
+		return n == 0 ? 0 : totalNanos.get() / n / 1000L;
+	}
+
+	public long getMeanMillis() {
+		return getMeanMicros() / 1000L;
+	}
+
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000L;
+	}
+
+	public long getMaxMillis() {
+		return maxNanos.get() / 1000000L;
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return upper bound of the bucket containing the percentile, in microseconds.
+	 */
+	public long getPercentileMicros(double percentile) {
+		long n = getCount();
+		if(n == 0) return 0;
+
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+
+		for(int i=0; i<BUCKETS; i++) {
+			seen += counts.get(i);
+
+			if(seen >= rank) {
+				return Math.min(upperBoundOf(i), getMaxMicros());
+			}
+		}
+
+		return getMaxMicros();
+	}
+
+	/**
+	 * @param percentile between 0 and 100.
+	 * @return upper bound of the bucket containing the percentile, in milliseconds.
+	 */
+	public long getPercentileMillis(double percentile) {
+		return getPercentileMicros(percentile) / 1000L;
+	}
+
+}
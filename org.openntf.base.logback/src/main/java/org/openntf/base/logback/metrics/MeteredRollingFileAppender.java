@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.metrics;
+
+import ch.qos.logback.core.rolling.RollingFileAppender;
+
+/**
+ * Rolling file appender counting its events and timing each write, including rollovers.
+ */
+public class MeteredRollingFileAppender<E> extends RollingFileAppender<E> {
+
+	private StripedCounter events;
+	private LatencyHistogram writes;
+
+	@Override
+	public void start() {
+		events = Metrics.counter(Metrics.name("appender", getName(), "events"));
+		writes = Metrics.histogram(Metrics.name("appender", getName(), "write"));
+
+		super.start();
+	}
+
+	@Override
+	protected void subAppend(E event) {
+		long started = System.nanoTime();
+
+		super.subAppend(event);
+
+		events.increment();
+		writes.record(System.nanoTime() - started);
+	}
+
+}
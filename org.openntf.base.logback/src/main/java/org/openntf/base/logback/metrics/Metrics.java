@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of XLogback metrics, published through JMX ({@link MetricsMBean}), the <code>xlb metrics</code> 
+ * console command and the status servlet of the XSP plugin.
+ * 
+ * Components look up their counters and histograms once (e.g. when an appender starts) and keep them. 
+ * Recording is then lock-free and does not allocate. Metrics with the same name are shared, so counters 
+ * continue when an appender is replaced after a settings change.
+ * 
+ * Names are dot separated, e.g. <code>appender.console.events</code>. Histograms are published as count, 
+ * mean, p50, p90, p99 and max in microseconds, as most saves take less than a millisecond.
+ */
+public class Metrics {
+
+	private static final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+	private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	public static StripedCounter counter(String name) {
+		StripedCounter counter = counters.get(name);
+
+		if(counter == null) {
+			StripedCounter created = new StripedCounter();
+			counter = counters.putIfAbsent(name, created);
+			if(counter == null) counter = created;
+		}
+
+		return counter;
+	}
+
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+
+		if(histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if(histogram == null) histogram = created;
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Registers a gauge. A gauge registered earlier with the same name is replaced.
+	 */
+	public static void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Removes the gauge, unless it has been replaced by another one.
+	 */
+	public static void removeGauge(String name, Gauge gauge) {
+		gauges.remove(name, gauge);
+	}
+
+	/**
+	 * @return metric name of the parts joined with dots. The component (e.g. an appender name) is reduced to 
+	 * letters, digits, dashes and underscores.
+	 */
+	public static String name(String prefix, String component, String metric) {
+		if(component == null || component.length() == 0) {
+			component = "unnamed";
+		}
+
+		StringBuilder sb = new StringBuilder(prefix).append('.');
+		for(int i = 0; i < component.length(); i++) {
+			char c = component.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+		}
+
+		return sb.append('.').append(metric).toString();
+	}
+
+	public static SortedMap<String, StripedCounter> getCounters() {
+		return new TreeMap<String, StripedCounter>(counters);
+	}
+
+	public static SortedMap<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<String, LatencyHistogram>(histograms);
+	}
+
+	public static SortedMap<String, Gauge> getGauges() {
+		return new TreeMap<String, Gauge>(gauges);
+	}
+
+	/**
+	 * @return all metrics as single values. Histograms are expanded into count, mean, p50, p90, p99 and max.
+	 */
+	public static SortedMap<String, Long> getValues() {
+		SortedMap<String, Long> values = new TreeMap<String, Long>();
+
+		for(Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().get());
+		}
+
+		for(Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			values.put(entry.getKey(), getValue(entry.getValue()));
+		}
+
+		for(Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			String name = entry.getKey();
+
+			values.put(name + ".count", histogram.getCount());
+			values.put(name + ".meanUs", histogram.getMeanMicros());
+			values.put(name + ".p50Us", histogram.getPercentileMicros(50));
+			values.put(name + ".p90Us", histogram.getPercentileMicros(90));
+			values.put(name + ".p99Us", histogram.getPercentileMicros(99));
+			values.put(name + ".maxUs", histogram.getMaxMicros());
+		}
+
+		return values;
+	}
+
+	/**
+	 * Looks up a single value of {@link #getValues()} without building the others.
+	 * 
+	 * @return null if there is no such metric.
+	 */
+	public static Long getValue(String name) {
+		StripedCounter counter = counters.get(name);
+		if(counter != null) {
+			return counter.get();
+		}
+
+		Gauge gauge = gauges.get(name);
+		if(gauge != null) {
+			return getValue(gauge);
+		}
+
+		int dot = name.lastIndexOf('.');
+		LatencyHistogram histogram = (dot > 0) ? histograms.get(name.substring(0, dot)) : null;
+		if(histogram == null) {
+			return null;
+		}
+
+		String value = name.substring(dot + 1);
+		if("count".equals(value)) {
+			return histogram.getCount();
+		} else if("meanUs".equals(value)) {
+			return histogram.getMeanMicros();
+		} else if("p50Us".equals(value)) {
+			return histogram.getPercentileMicros(50);
+		} else if("p90Us".equals(value)) {
+			return histogram.getPercentileMicros(90);
+		} else if("p99Us".equals(value)) {
+			return histogram.getPercentileMicros(99);
+		} else if("maxUs".equals(value)) {
+			return histogram.getMaxMicros();
+		}
+
+		return null;
+	}
+
+	/**
+	 * A failing gauge must not break publishing the others.
+	 */
+	static long getValue(Gauge gauge) {
+		try {
+			return gauge.getValue();
+		} catch(RuntimeException e) {
+			return -1;
+		}
+	}
+
+	public static String toJson() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("{\"counters\":{");
+		int i = 0;
+		for(Map.Entry<String, StripedCounter> entry : getCounters().entrySet()) {
+			appendJsonValue(sb, i++, entry.getKey(), entry.getValue().get());
+		}
+
+		sb.append("},\"gauges\":{");
+		i = 0;
+		for(Map.Entry<String, Gauge> entry : getGauges().entrySet()) {
+			appendJsonValue(sb, i++, entry.getKey(), getValue(entry.getValue()));
+		}
+
+		sb.append("},\"histograms\":{");
+		i = 0;
+		for(Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+
+			if(i++ > 0) sb.append(',');
+			sb.append('"').append(entry.getKey()).append("\":{");
+			appendJsonValue(sb, 0, "count", histogram.getCount());
+			appendJsonValue(sb, 1, "meanUs", histogram.getMeanMicros());
+			appendJsonValue(sb, 2, "p50Us", histogram.getPercentileMicros(50));
+			appendJsonValue(sb, 3, "p90Us", histogram.getPercentileMicros(90));
+			appendJsonValue(sb, 4, "p99Us", histogram.getPercentileMicros(99));
+			appendJsonValue(sb, 5, "maxUs", histogram.getMaxMicros());
+			sb.append('}');
+		}
+
+		sb.append("}}");
+		return sb.toString();
+	}
+
+	/**
+	 * Metric names only contain letters, digits, dots, dashes and underscores, so they are not escaped.
+	 */
+	private static void appendJsonValue(StringBuilder sb, int index, String name, long value) {
+		if(index > 0) sb.append(',');
+		sb.append('"').append(name).append("\":").append(value);
+	}
+
+	/**
+	 * @return metrics in the Prometheus text format. Names get the 'xlb_' prefix, counters the '_total' 
+	 * suffix, histograms are published as summaries in seconds.
+	 */
+	public static String toPrometheus() {
+		StringBuilder sb = new StringBuilder();
+
+		for(Map.Entry<String, StripedCounter> entry : getCounters().entrySet()) {
+			String name = toPrometheusName(entry.getKey()) + "_total";
+			sb.append("# TYPE ").append(name).append(" counter\n");
+			sb.append(name).append(' ').append(entry.getValue().get()).append('\n');
+		}
+
+		for(Map.Entry<String, Gauge> entry : getGauges().entrySet()) {
+			String name = toPrometheusName(entry.getKey());
+			sb.append("# TYPE ").append(name).append(" gauge\n");
+			sb.append(name).append(' ').append(getValue(entry.getValue())).append('\n');
+		}
+
+		for(Map.Entry<String, LatencyHistogram> entry : getHistograms().entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			String name = toPrometheusName(entry.getKey()) + "_seconds";
+
+			sb.append("# TYPE ").append(name).append(" summary\n");
+			appendQuantile(sb, name, "0.5", histogram.getPercentileMicros(50));
+			appendQuantile(sb, name, "0.9", histogram.getPercentileMicros(90));
+			appendQuantile(sb, name, "0.99", histogram.getPercentileMicros(99));
+			sb.append(name).append("_sum ").append(histogram.getTotalNanos() / 1e9).append('\n');
+			sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+	private static void appendQuantile(StringBuilder sb, String name, String quantile, long micros) {
+		sb.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(micros / 1e6).append('\n');
+	}
+
+	static String toPrometheusName(String name) {
+		StringBuilder sb = new StringBuilder("xlb_");
+
+		for(int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+		}
+
+		return sb.toString();
+	}
+
+}
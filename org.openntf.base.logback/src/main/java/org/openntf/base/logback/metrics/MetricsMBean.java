@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Publishes {@link Metrics} as read-only attributes of <code>org.openntf.base.logback:type=Metrics</code>. 
+ * Attributes are built from the registry on each call, so metrics registered later appear as well.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+	public static final String OBJECT_NAME = "org.openntf.base.logback:type=Metrics";
+
+	/**
+	 * Registers the MBean to the platform MBean server. An instance left from a previous start of the plugin 
+	 * is replaced.
+	 */
+	public static void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+
+		try {
+			server.registerMBean(new MetricsMBean(), name);
+		} catch(InstanceAlreadyExistsException e) {
+			server.unregisterMBean(name);
+			server.registerMBean(new MetricsMBean(), name);
+		}
+	}
+
+	public static void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+
+		if(server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Long value = Metrics.getValue(attribute);
+
+		if(value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+
+		for(String attribute : attributes) {
+			Long value = Metrics.getValue(attribute);
+			if(value != null) {
+				list.add(new Attribute(attribute, value));
+			}
+		}
+
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		Map<String, Long> values = Metrics.getValues();
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+
+		int i = 0;
+		for(String name : values.keySet()) {
+			attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+		}
+
+		return new MBeanInfo(getClass().getName(), "XLogback metrics", attributes, null, null, null);
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for values updated by many threads. Each thread adds to one of several cells picked by its thread 
+ * id, so concurrent loggers rarely contend on the same cache line. Reading sums the cells.
+ */
+public class StripedCounter {
+
+	// Cells are one cache line (8 longs) apart.
+	private static final int PADDING = 8;
+	private static final int MAX_STRIPES = 64;
+	private static final int STRIPES = getStripeCount();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long delta) {
+		int index = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+		cells.addAndGet(index, delta);
+	}
+
+	public long get() {
+		long sum = 0;
+		for(int i=0; i<STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return a power of two, at least twice the number of processors.
+	 */
+	private static int getStripeCount() {
+		int wanted = Runtime.getRuntime().availableProcessors() * 2;
+		int stripes = 1;
+
+		while(stripes < wanted && stripes < MAX_STRIPES) {
+			stripes <<= 1;
+		}
+
+		return stripes;
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.openntf.base.logback.utils.ReentrancyGuard;
+import org.openntf.base.logback.utils.Scheduler;
+import org.openntf.base.logback.utils.ThrowableFingerprint;
+
+/**
+ * Coalesces repeated errors for the {@link OpenLogAppender}. 
+ * 
+ * Entries are grouped by {@link ThrowableFingerprint}. The first entry of a window is written in full. Repeats 
+ * within the window are only counted, and a summary entry is written when the window ends.
+ *
+ */
+public class ErrorCoalescer {
+
+	private static final int MAX_WINDOWS = 1000;
+
+	private final OpenLogAppender appender;
+	private final long window;
+	private final int depth;
+
+	private final Map<Long, Window> windows = new HashMap<Long, Window>();
+
+	private ScheduledFuture<?> task;
+
+	public ErrorCoalescer(OpenLogAppender appender, long window, int depth) {
+		this.appender = appender;
+		this.window = window;
+		this.depth = depth;
+	}
+
+	public void start() {
+		task = Scheduler.schedule(new Runnable() {
+			public void run() {
+				// Summaries might be saved on this thread in synchronous mode.
+				if(ReentrancyGuard.enter()) {
+					try {
+						expire(false);
+					} finally {
+						ReentrancyGuard.exit();
+					}
+				}
+			}
+		}, window);
+	}
+
+	/**
+	 * Writes summaries for all open windows.
+	 */
+	public void stop() {
+		if(task != null) {
+			task.cancel(false);
+			task = null;
+		}
+
+		expire(true);
+	}
+
+	/**
+	 * @return true if the entry should be written, false if it has been counted as a repeat.
+	 */
+	public boolean offer(OpenLogEntry entry, Throwable t) {
+		// Same errors from different applications are kept apart, as they might be routed to different targets.
+		long fingerprint = ThrowableFingerprint.compute(t, entry.getMarker() + "|" + entry.getFromApp(), depth);
+		long now = entry.getTimeStamp();
+		OpenLogEntry summary = null;
+
+		synchronized(windows) {
+			Window current = windows.get(fingerprint);
+
+			if(current != null) {
+				if(now - current.firstSeen < window) {
+					current.repeat(now);
+					return false;
+				}
+
+				summary = current.getSummary();
+			}
+
+			// Over the limit, new fingerprints are not coalesced.
+			if(current != null || windows.size() < MAX_WINDOWS) {
+				windows.put(fingerprint, new Window(entry));
+			}
+		}
+
+		if(summary != null) {
+			appender.offerEntry(summary);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes finished windows and writes their summaries.
+	 */
+	protected void expire(boolean all) {
+		List<OpenLogEntry> summaries = new ArrayList<OpenLogEntry>();
+		long now = System.currentTimeMillis();
+
+		synchronized(windows) {
+			for(Iterator<Window> iterator = windows.values().iterator(); iterator.hasNext();) {
+				Window current = iterator.next();
+
+				if(all || now - current.firstSeen >= window) {
+					iterator.remove();
+
+					OpenLogEntry summary = current.getSummary();
+					if(summary != null) {
+						summaries.add(summary);
+					}
+				}
+			}
+		}
+
+		for(OpenLogEntry summary : summaries) {
+			appender.offerEntry(summary);
+		}
+	}
+
+	public int getWindowCount() {
+		synchronized(windows) {
+			return windows.size();
+		}
+	}
+
+	private static class Window {
+		private final OpenLogEntry first;
+		private final long firstSeen;
+		private long lastSeen;
+		private int repeats = 0;
+
+		Window(OpenLogEntry first) {
+			this.first = first;
+			this.firstSeen = first.getTimeStamp();
+			this.lastSeen = firstSeen;
+		}
+
+		void repeat(long time) {
+			repeats++;
+			lastSeen = Math.max(lastSeen, time);
+		}
+
+		/**
+		 * @return null if there were no repeats.
+		 */
+		OpenLogEntry getSummary() {
+			return repeats > 0 ? first.createSummary(repeats, firstSeen, lastSeen) : null;
+		}
+	}
+
+}
@@ -16,30 +16,43 @@
  */
 package org.openntf.base.logback.openlog;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import lotus.domino.Database;
-import lotus.domino.Document;
-import lotus.domino.NotesException;
-import lotus.domino.Session;
-
-import org.openntf.base.logback.core.LoggingException;
-import org.openntf.base.logback.utils.DominoRunner;
+import java.util.Map;
+
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.core.RequestMdc;
+import org.openntf.base.logback.filter.DatabaseSnapshot;
+import org.openntf.base.logback.filter.DocumentSnapshot;
+import org.openntf.base.logback.filter.DominoArguments;
+import org.openntf.base.logback.metrics.Gauge;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.metrics.StripedCounter;
+import org.openntf.base.logback.utils.ReentrancyGuard;
 import org.openntf.base.logback.utils.StringUtils;
-import org.openntf.base.logback.utils.Utils;
-import org.openntf.base.logback.utils.DominoRunner.SessionRoutine;
-import org.slf4j.MDC;
+import org.slf4j.helpers.MessageFormatter;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.ThrowableProxy;
-import ch.qos.logback.core.AppenderBase;
-
-public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.util.FileSize;
+
+/**
+ * Appender for the OpenLog database.
+ * 
+ * The appender is not synchronized. Callers only create an {@link OpenLogEntry} and put it into the
+ * {@link OpenLogWriter} queue. In synchronous mode, the caller flushes the queue afterwards. In asynchronous
+ * mode, a dedicated writer thread saves entries in batches.
+ *
+ */
+public class OpenLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
 	private static final String DEFAULT_LOGDBPATH = "OpenLog.nsf"; 
-	private static final int MAX_COUNT_QUEUE = 10;
 	
 	private String defaultApp;
 	private String defaultAgent;
@@ -50,8 +63,41 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 	private boolean suppressEventStack = false;
 	private int logExpireDays = 0;
 	private int debugLevel = 2;
+
+	private boolean async = false;
+	private int batchSize = 50;
+	private long flushInterval = 1000L;
+
+	private int queueCapacity = 1000;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private Level overflowLevel = Level.WARN;
+	private long blockTimeout = 100L;
+	private long dbIdleTimeout = 300000L;
+
+	private boolean bulkImport = false;
+
+	private boolean journal = false;
+	private String journalSize = "64MB";
+	private String journalFolder = "";
+	private boolean journalDeferred = false;
 	
-	private List<OpenLogEntry> queue = new ArrayList<OpenLogEntry>();
+	private long coalesceWindow = 60000L;
+	private int coalesceDepth = 5;
+
+	private final List<OpenLogRoute> routes = new ArrayList<OpenLogRoute>();
+
+	private OpenLogWriter writer;
+	private final Map<String, OpenLogWriter> routeWriters = new LinkedHashMap<String, OpenLogWriter>();
+
+	private StripedCounter eventCount;
+	private String queueGaugeName;
+	private final Gauge queueGauge = new Gauge() {
+		public long getValue() {
+			return getQueueSize();
+		}
+	};
+	private ErrorCoalescer coalescer;
+	private final SessionIdentityCache identityCache = new SessionIdentityCache();
 	
 	@Override
 	public void start() {
@@ -61,8 +107,55 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 			return;
 		}
 
+		routeWriters.clear();
+
+		writer = new OpenLogWriter(this, getTargetDbServer(), getTargetDbPath(), ! journalDeferred);
+		routeWriters.put(OpenLogRoute.getTargetKey(getTargetDbServer(), getTargetDbPath()), writer);
+
+		// Each target database has its own queue and writer.
+		for(OpenLogRoute route : routes) {
+			if(! routeWriters.containsKey(route.getTargetKey())) {
+				routeWriters.put(route.getTargetKey(), new OpenLogWriter(this, route.getTargetDbServer(), route.getTargetDbPath(), ! journalDeferred));
+			}
+		}
+
+		if(isAsync()) {
+			for(OpenLogWriter routeWriter : routeWriters.values()) {
+				routeWriter.start();
+			}
+		}
+
+		if(coalesceWindow > 0) {
+			coalescer = new ErrorCoalescer(this, coalesceWindow, coalesceDepth);
+			coalescer.start();
+		}
+
+		eventCount = Metrics.counter(Metrics.name("appender", getName(), "events"));
+		queueGaugeName = Metrics.name("openlog", getName(), "queued");
+		Metrics.gauge(queueGaugeName, queueGauge);
+
 		super.start();
-		addInfo("OpenLog logging started.");
+		addInfo("OpenLog logging started" + (isAsync() ? " in asynchronous mode." : "."));
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+
+		if(coalescer != null) {
+			coalescer.stop();
+			coalescer = null;
+		}
+
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			routeWriter.stop();
+		}
+
+		if(queueGaugeName != null) {
+			Metrics.removeGauge(queueGaugeName, queueGauge);
+		}
+		
+		addInfo("OpenLog logging stopped.");
 	}
 
 	@Override
@@ -71,34 +164,53 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 			return;
 		}
 
-		// TODO Needs Guarding against repetitive reentries.
-		
-		Object[] args = event.getArgumentArray();
-		Document sourceDoc = null;
-		Database sourceDb = null;
-		
+		if(! ReentrancyGuard.enter()) {
+			reentrantEvent();
+			return;
+		}
+
+		eventCount.increment();
+
 		try {
-			if(args!=null && args.length>0) {
-				for(int i=0; i<args.length; i++) {
-					if(args[i] instanceof Document) {
-						sourceDoc = (Document)args[i];
-						args[i] = "[DocId:"+sourceDoc.getNoteID()+"]";
-					} else if(args[i] instanceof Database) {
-						sourceDb = (Database)args[i];
-						args[i] = "[DB:"+sourceDb.getFilePath()+"]";
-					}
+			appendGuarded(event);
+		} finally {
+			ReentrancyGuard.exit();
+		}
+	}
+
+	private void reentrantEvent() {
+		long dropped = ReentrancyGuard.getDroppedCount();
+
+		if(dropped == 1 || dropped % 1000 == 0) {
+			addWarn("Reentrant logging event dropped. Total dropped so far: " + dropped);
+		}
+	}
+
+	private void appendGuarded(ILoggingEvent event) {
+		DocumentSnapshot sourceDoc = null;
+		DatabaseSnapshot sourceDb = null;
+
+		// Snapshots are taken on the logging thread, before the entry is queued. The event is not changed.
+		Object[] args = DominoArguments.snapshot(event.getArgumentArray());
+		
+		if(args!=null && args.length>0) {
+			for(int i=0; i<args.length; i++) {
+				if(args[i] instanceof DocumentSnapshot) {
+					sourceDoc = (DocumentSnapshot)args[i];
+				} else if(args[i] instanceof DatabaseSnapshot) {
+					sourceDb = (DatabaseSnapshot)args[i];
 				}
 			}
-		} catch (NotesException e) {
-			addWarn("Unexpected error recovering SourceDoc", e);
 		}
 		
-		addToOpenLog(event, sourceDoc, sourceDb);
+		// The formatted message of the event would call toString() on the Domino objects.
+		String message = (args == event.getArgumentArray()) ? event.getFormattedMessage() : MessageFormatter.arrayFormat(event.getMessage(), args).getMessage();
+
+		addToOpenLog(event, message, sourceDoc, sourceDb);
 	}
 
-	protected void addToOpenLog(final ILoggingEvent event, final Document sourceDoc, final Database sourceDb) {
+	protected void addToOpenLog(final ILoggingEvent event, String message, final DocumentSnapshot sourceDoc, final DatabaseSnapshot sourceDb) {
 		boolean isEvent = (event.getLevel() != ch.qos.logback.classic.Level.ERROR);
-		String message = event.getFormattedMessage();
 		String severity = event.getLevel().levelStr;
 
 		ThrowableProxy tp = (ThrowableProxy) event.getThrowableProxy();
@@ -119,77 +231,55 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 		item.setLoggedDoc(sourceDoc);
 		item.setEvent(isEvent);
 		item.setEventSeverity(severity);
-		item.setFromAgent(getAgent());
-		item.setFromApp(getApp());
+		Map<String, String> mdc = event.getMDCPropertyMap();
+
+		item.setFromAgent(getAgent(mdc));
+		item.setFromApp(getApp(mdc));
+		item.setUserName(mdc.get(RequestMdc.KEY_USER));
+		item.setWriter(selectWriter(event, item.getFromApp()));
 		
 		if(event.getMarker()!=null) {
 			item.setMarker(event.getMarker().getName());
 		}
+
+		ErrorCoalescer currentCoalescer = coalescer;
+		if(null != tp && currentCoalescer != null && ! currentCoalescer.offer(item, tp.getThrowable())) {
+			// Counted as a repeat
+			return;
+		}
 		
-		queue.add(item);
-		
-		sendToLog();
-		checkQueue();
+		offerEntry(item);
 	}
 
-	private void sendToLog() {
-		DominoRunner.runWithSession(false, new SessionRoutine<Boolean>() {
-
-			@Override
-			public Boolean doRun(Session session) {
-				sendToLog(session);
-				return null;
-			}
+	protected void offerEntry(OpenLogEntry item) {
+		OpenLogWriter target = (item.getWriter() != null) ? item.getWriter() : writer;
 
-			@Override
-			public Boolean fallback() {
-				addWarn("We can't have a session yet. Next time...");
-				return false;
-			}
-
-			@Override
-			public Boolean onException(Throwable t) {
-				addError("Unable to write to OpenLog.", t);
-				return false;
-			}
-		});
+		target.offer(item);
+		
+		if(! target.isAsync()) {
+			target.flush(false);
+		}
 	}
 
-	protected void sendToLog(Session session) {
-		
-		Database logDb = null;
-		try {
-			logDb = session.getDatabase(getTargetDbServer(), getTargetDbPath(), false);
-
-			if(logDb!=null) {
-				for (Iterator<OpenLogEntry> iterator = queue.iterator(); iterator.hasNext();) {
-					OpenLogEntry item = (OpenLogEntry) iterator.next();
-					
-					if(item.save(logDb)) {
-						iterator.remove();
-					}
+	/**
+	 * @return writer of the first matching route, or the default writer.
+	 */
+	private OpenLogWriter selectWriter(ILoggingEvent event, String app) {
+		for(OpenLogRoute route : routes) {
+			if(route.matches(event, app)) {
+				OpenLogWriter routeWriter = routeWriters.get(route.getTargetKey());
+
+				if(routeWriter != null) {
+					return routeWriter;
 				}
 			}
-		
-		} catch (NotesException e) {
-			addError("Notes Error processing OpenLogEntry", e);
-		} catch (LoggingException e) {
-			addError("Error processing OpenLogEntry", e);
-		} finally {
-			Utils.recycleObject(logDb);
 		}
-		
-	}
 
-	protected void checkQueue() {
-		if(queue.size()>MAX_COUNT_QUEUE) {
-			addError("OpenLog has too much log entries in the queue. It will stop now.");
-			stop();
-		}
+		return writer;
 	}
-	
-	protected String getAgent() {
-		String agentSet = MDC.get("agent");
+
+	protected String getAgent(Map<String, String> mdc) {
+		String agentSet = mdc.get(RequestMdc.KEY_AGENT);
 
 		if(StringUtils.isNotEmpty(agentSet)) {
 			return agentSet;
@@ -202,8 +292,8 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 		return null;
 	}
 
-	protected String getApp() {
-		String appSet = MDC.get("app");
+	protected String getApp(Map<String, String> mdc) {
+		String appSet = mdc.get(RequestMdc.KEY_APP);
 		
 		if(StringUtils.isNotEmpty(appSet)) {
 			return appSet;
@@ -216,6 +306,145 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 		return null;
 	}
 	
+	/**
+	 * @return number of entries waiting to be saved.
+	 */
+	public int getQueueSize() {
+		int size = 0;
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			size += routeWriter.getQueueSize();
+		}
+		return size;
+	}
+
+	/**
+	 * @return number of entries dropped because of the overflow policy.
+	 */
+	public long getDroppedCount() {
+		long count = 0;
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			count += routeWriter.getDroppedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of entries saved to the target databases.
+	 */
+	public long getSavedCount() {
+		long count = 0;
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			count += routeWriter.getSavedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of bytes in the journal waiting to be saved.
+	 */
+	public long getJournalPendingBytes() {
+		long bytes = 0;
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			bytes += routeWriter.getJournalPendingBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return writers for each target database. The default target comes first.
+	 */
+	public Collection<OpenLogWriter> getWriters() {
+		return Collections.unmodifiableCollection(routeWriters.values());
+	}
+
+	/**
+	 * Opens the journals deferred by {@link #setJournalDeferred(boolean)}.
+	 */
+	public void openJournals() {
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			routeWriter.openJournal();
+		}
+	}
+
+	/**
+	 * Moves entries not saved by this stopped appender to the given appender. Entries keep their target 
+	 * database if the other appender has it.
+	 * 
+	 * A journal not opened by the other appender (e.g. the target database has been changed) is drained too, 
+	 * so its entries are not stranded. Journals of the other appender must be open before.
+	 */
+	public void transferUnsaved(OpenLogAppender target) {
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			List<OpenLogEntry> entries = new ArrayList<OpenLogEntry>();
+
+			if(! target.hasJournal(routeWriter.getJournalFile())) {
+				entries.addAll(routeWriter.drainJournal());
+			}
+
+			entries.addAll(routeWriter.drainUnsaved());
+
+			if(! entries.isEmpty()) {
+				target.adopt(entries, OpenLogRoute.getTargetKey(routeWriter.getTargetDbServer(), routeWriter.getTargetDbPath()));
+			}
+		}
+	}
+
+	private boolean hasJournal(File file) {
+		for(OpenLogWriter routeWriter : routeWriters.values()) {
+			if(routeWriter.hasJournal(file)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private void adopt(List<OpenLogEntry> entries, String targetKey) {
+		OpenLogWriter targetWriter = routeWriters.get(targetKey);
+
+		for(OpenLogEntry entry : entries) {
+			entry.setWriter(targetWriter);
+			offerEntry(entry);
+		}
+	}
+
+	/**
+	 * Adds a routing rule in <code>type:value=target</code> format. Rules are checked in the order of addition.
+	 * 
+	 * @see OpenLogRoute
+	 */
+	public void addRoute(String rule) {
+		try {
+			routes.add(OpenLogRoute.parse(rule.trim()));
+		} catch(IllegalArgumentException e) {
+			addError(e.getMessage());
+		}
+	}
+
+	/**
+	 * Adds routing rules separated by semicolons.
+	 */
+	public void setRoutes(String rules) {
+		if(StringUtils.isEmpty(rules)) return;
+
+		for(String rule : rules.split(";")) {
+			if(StringUtils.isNotEmpty(rule.trim())) {
+				addRoute(rule);
+			}
+		}
+	}
+
+	public List<OpenLogRoute> getRoutes() {
+		return Collections.unmodifiableList(routes);
+	}
+
+	/**
+	 * Cache for the user and server values of OpenLog documents.
+	 */
+	public SessionIdentityCache getIdentityCache() {
+		return identityCache;
+	}
+
 	public String getDefaultApp() {
 		return defaultApp;
 	}
@@ -296,4 +525,189 @@ public class OpenLogAppender extends AppenderBase<ILoggingEvent> {
 		this.debugLevel = debugLevel;
 	}
 
-}
\ No newline at end of file
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * If true, entries will be saved by a dedicated writer thread. Logging threads will only enqueue entries.
+	 * 
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Maximum number of entries to be saved with a single session.
+	 * 
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Maximum time (in milliseconds) for the writer thread to wait before saving an incomplete batch. 
+	 * 
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Maximum number of entries waiting in the memory. Overflow policy decides beyond this capacity.
+	 * 
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * What to do when the queue is full: DROP_OLDEST [Default], DROP_BELOW_LEVEL, BLOCK or SPILL.
+	 * 
+	 * SPILL writes entries into the journal file. Other policies apply when the journal is enabled but full.
+	 * 
+	 */
+	public void setOverflowPolicy(String overflowPolicy) {
+		this.overflowPolicy = OverflowPolicy.toPolicy(overflowPolicy, OverflowPolicy.DROP_OLDEST);
+	}
+
+	public Level getOverflowLevel() {
+		return overflowLevel;
+	}
+
+	/**
+	 * For DROP_BELOW_LEVEL policy, entries below this level will be dropped when the queue is full. 
+	 * 
+	 */
+	public void setOverflowLevel(String overflowLevel) {
+		this.overflowLevel = Level.toLevel(overflowLevel, Level.WARN);
+	}
+
+	public long getBlockTimeout() {
+		return blockTimeout;
+	}
+
+	/**
+	 * For BLOCK policy, maximum time (in milliseconds) for the caller to wait for space in the queue.
+	 * 
+	 */
+	public void setBlockTimeout(long blockTimeout) {
+		this.blockTimeout = Math.max(0, blockTimeout);
+	}
+
+	public long getCoalesceWindow() {
+		return coalesceWindow;
+	}
+
+	/**
+	 * Repeats of the same error within this window (in milliseconds) are written as one summary entry.
+	 * 0 disables coalescing.
+	 */
+	public void setCoalesceWindow(long coalesceWindow) {
+		this.coalesceWindow = coalesceWindow;
+	}
+
+	public int getCoalesceDepth() {
+		return coalesceDepth;
+	}
+
+	/**
+	 * Number of top stack frames used to identify the same error.
+	 */
+	public void setCoalesceDepth(int coalesceDepth) {
+		this.coalesceDepth = coalesceDepth;
+	}
+
+	public long getDbIdleTimeout() {
+		return dbIdleTimeout;
+	}
+
+	/**
+	 * The OpenLog database stays open between batches. It will be opened again if not used for this time 
+	 * (in milliseconds).
+	 * 
+	 */
+	public void setDbIdleTimeout(long dbIdleTimeout) {
+		this.dbIdleTimeout = dbIdleTimeout;
+	}
+
+	public boolean isBulkImport() {
+		return bulkImport;
+	}
+
+	/**
+	 * If true, batches will be imported into the OpenLog database as a single DXL stream instead of saving 
+	 * each document.
+	 * 
+	 */
+	public void setBulkImport(boolean bulkImport) {
+		this.bulkImport = bulkImport;
+	}
+
+	public boolean isJournal() {
+		return journal;
+	}
+
+	/**
+	 * If true, every entry will be written into a journal file before queueing. Entries not saved into the 
+	 * OpenLog database will be replayed after a restart.
+	 * 
+	 */
+	public void setJournal(boolean journal) {
+		this.journal = journal;
+	}
+
+	public boolean isJournalDeferred() {
+		return journalDeferred;
+	}
+
+	/**
+	 * If true, writers don't open their journals in {@link #start()}, only in {@link #openJournals()}. Used when
+	 * this appender replaces another one still having the same journal files open.
+	 * 
+	 */
+	public void setJournalDeferred(boolean journalDeferred) {
+		this.journalDeferred = journalDeferred;
+	}
+
+	public long getJournalSize() {
+		return FileSize.valueOf(journalSize).getSize();
+	}
+
+	/**
+	 * Size of the journal file (e.g. 64MB). Also used for the SPILL policy.
+	 * 
+	 */
+	public void setJournalSize(String journalSize) {
+		this.journalSize = journalSize;
+	}
+
+	public String getJournalFolder() {
+		return StringUtils.isNotEmpty(journalFolder) ? journalFolder : LogSettings.getLogbackLoggingPath();
+	}
+
+	/**
+	 * Folder for journal files. Default is the XLogback logging folder. 
+	 * 
+	 */
+	public void setJournalFolder(String journalFolder) {
+		this.journalFolder = journalFolder;
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import lotus.domino.Database;
+import lotus.domino.DateTime;
+import lotus.domino.DocumentCollection;
+import lotus.domino.NotesException;
+import lotus.domino.Session;
+
+import org.openntf.base.logback.utils.DominoRunner;
+import org.openntf.base.logback.utils.DominoRunner.SessionRoutine;
+import org.openntf.base.logback.utils.Utils;
+
+/**
+ * Compares saving OpenLog entries one by one against a single DXL import. Synthetic entries are written into
+ * the default target of the appender, with the marker {@value #BENCHMARK_MARKER}. They are deleted again 
+ * when the benchmark ends, and at most {@value #MAX_COUNT} entries are written for each mode.
+ *
+ */
+public class OpenLogBenchmark {
+
+	public static final String BENCHMARK_MARKER = "XLB_BENCHMARK";
+	public static final int MAX_COUNT = 1000;
+	private static final String BENCHMARK_APP = "XLogback Benchmark";
+
+	private final OpenLogAppender appender;
+	private final int count;
+	// Identifies the documents of this run for the cleanup.
+	private final String runApp = BENCHMARK_APP + " " + Long.toString(System.currentTimeMillis(), 36);
+
+	private long documentNanos = -1;
+	private long dxlNanos = -1;
+	private int saved = 0;
+	private int imported = 0;
+	private int removed = -1;
+
+	public OpenLogBenchmark(OpenLogAppender appender, int count) {
+		this.appender = appender;
+		this.count = Math.max(1, Math.min(count, MAX_COUNT));
+	}
+
+	/**
+	 * @return summary of results.
+	 */
+	public String run() {
+		return DominoRunner.runWithSession(true, new SessionRoutine<String>() {
+			public String doRun(Session session) {
+				Database targetDb = null;
+				Date started = new Date();
+
+				try {
+					targetDb = session.getDatabase(appender.getTargetDbServer(), appender.getTargetDbPath(), false);
+					if(targetDb == null || ! targetDb.isOpen()) {
+						return "Unable to open the OpenLog database.";
+					}
+
+					SessionIdentity identity = appender.getIdentityCache().get(session);
+
+					List<OpenLogEntry> entries = createEntries("document");
+					long startedNanos = System.nanoTime();
+					for(OpenLogEntry entry : entries) {
+						if(entry.save(targetDb, identity)) {
+							saved++;
+						}
+					}
+					documentNanos = System.nanoTime() - startedNanos;
+
+					entries = createEntries("DXL");
+					startedNanos = System.nanoTime();
+					OpenLogDxlBuilder dxl = new OpenLogDxlBuilder();
+					for(OpenLogEntry entry : entries) {
+						entry.appendDxl(dxl, identity);
+					}
+					imported = OpenLogWriter.importDxl(appender, session, targetDb, dxl, entries.size());
+					dxlNanos = System.nanoTime() - startedNanos;
+
+					removed = removeEntries(session, targetDb, started);
+
+					return toString();
+				} catch(Throwable t) {
+					if(targetDb != null) {
+						removeEntriesQuietly(session, targetDb, started);
+					}
+					return onException(t);
+				} finally {
+					Utils.recycleObject(targetDb);
+				}
+			}
+
+			public String fallback() {
+				return "No session available for the benchmark.";
+			}
+
+			public String onException(Throwable t) {
+				return "Benchmark failed: " + t;
+			}
+		});
+	}
+
+	/**
+	 * Deletes the documents of this run. The search is limited to documents modified since the start.
+	 * 
+	 * @return number of documents deleted.
+	 */
+	private int removeEntries(Session session, Database targetDb, Date started) throws NotesException {
+		DateTime cutoff = null;
+		DocumentCollection documents = null;
+
+		try {
+			// A second earlier, as the cutoff has no milliseconds.
+			cutoff = session.createDateTime(new Date(started.getTime() - 1000L));
+			documents = targetDb.search("Form = \"LogEvent\" & LogMarker = \"" + BENCHMARK_MARKER 
+					+ "\" & LogFromDatabase = \"" + runApp + "\"", cutoff, 0);
+
+			int removedCount = documents.getCount();
+			documents.removeAll(true);
+			return removedCount;
+		} finally {
+			Utils.recycleObject(documents);
+			Utils.recycleObject(cutoff);
+		}
+	}
+
+	private void removeEntriesQuietly(Session session, Database targetDb, Date started) {
+		try {
+			removed = removeEntries(session, targetDb, started);
+		} catch(Throwable t) {
+			// The benchmark failure is reported.
+		}
+	}
+
+	private List<OpenLogEntry> createEntries(String mode) {
+		List<OpenLogEntry> entries = new ArrayList<OpenLogEntry>(count);
+
+		for(int i=0; i<count; i++) {
+			OpenLogEntry entry = new OpenLogEntry(appender);
+
+			entry.setMessage("Benchmark entry " + i + " (" + mode + ")");
+			entry.setEvent(i % 2 == 0);
+			entry.setEventSeverity(i % 2 == 0 ? "WARN" : "ERROR");
+			entry.setFromApp(runApp);
+			entry.setMarker(BENCHMARK_MARKER);
+
+			if(i % 2 == 1) {
+				entry.setBaseException(new Exception("Benchmark exception " + i));
+			}
+
+			entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	public long getDocumentNanos() {
+		return documentNanos;
+	}
+
+	public long getDxlNanos() {
+		return dxlNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "OpenLog benchmark for " + count + " entries: " 
+				+ "per document " + saved + " saved in " + (documentNanos / 1000000L) + " ms, "
+				+ "DXL import " + imported + " imported in " + (dxlNanos / 1000000L) + " ms, " 
+				+ (removed < 0 ? "documents not removed." : removed + " documents removed.");
+	}
+
+}
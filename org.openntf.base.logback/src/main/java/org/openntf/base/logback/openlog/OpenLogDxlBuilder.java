@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Builds a DXL stream for a batch of OpenLog documents. The stream is imported with a single DxlImporter call.
+ * 
+ * Not thread-safe. A builder is used for one batch only.
+ *
+ */
+public class OpenLogDxlBuilder {
+
+	private final StringBuilder dxl = new StringBuilder(8192);
+	private final SimpleDateFormat dateFormat;
+
+	private int documentCount = 0;
+
+	public OpenLogDxlBuilder() {
+		// DXL has hundredths of a second, appended separately.
+		dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		dxl.append("<?xml version='1.0' encoding='utf-8'?>");
+		dxl.append("<database xmlns='http://www.lotus.com/dxl'>");
+	}
+
+	public OpenLogDxlBuilder startDocument() {
+		dxl.append("<document>");
+		return this;
+	}
+
+	public OpenLogDxlBuilder endDocument() {
+		dxl.append("</document>");
+		documentCount++;
+		return this;
+	}
+
+	public OpenLogDxlBuilder text(String name, String value) {
+		startItem(name);
+		appendText(value);
+		return endItem();
+	}
+
+	public OpenLogDxlBuilder textList(String name, Collection<?> values) {
+		if(values == null || values.isEmpty()) {
+			return text(name, "");
+		}
+
+		startItem(name);
+		dxl.append("<textlist>");
+		for(Object value : values) {
+			appendText(value == null ? "" : value.toString());
+		}
+		dxl.append("</textlist>");
+		return endItem();
+	}
+
+	public OpenLogDxlBuilder number(String name, long value) {
+		startItem(name);
+		dxl.append("<number>").append(value).append("</number>");
+		return endItem();
+	}
+
+	public OpenLogDxlBuilder dateTime(String name, Date value) {
+		startItem(name);
+		int hundredths = (int) ((value.getTime() % 1000 + 1000) % 1000) / 10;
+
+		dxl.append("<datetime>").append(dateFormat.format(value)).append(',');
+		dxl.append(hundredths < 10 ? "0" : "").append(hundredths).append("Z</datetime>");
+		return endItem();
+	}
+
+	/**
+	 * Rich text item with one paragraph for each line.
+	 */
+	public OpenLogDxlBuilder richText(String name, Collection<String> lines) {
+		startItem(name);
+		dxl.append("<richtext><pardef id='1'/>");
+		for(String line : lines) {
+			dxl.append("<par def='1'>");
+			escape(line);
+			dxl.append("</par>");
+		}
+		dxl.append("</richtext>");
+		return endItem();
+	}
+
+	public int getDocumentCount() {
+		return documentCount;
+	}
+
+	@Override
+	public String toString() {
+		return dxl.toString() + "</database>";
+	}
+
+	private void startItem(String name) {
+		dxl.append("<item name='").append(name).append("'>");
+	}
+
+	private OpenLogDxlBuilder endItem() {
+		dxl.append("</item>");
+		return this;
+	}
+
+	private void appendText(String value) {
+		if(value == null || value.length() == 0) {
+			dxl.append("<text/>");
+		} else {
+			dxl.append("<text>");
+			escape(value);
+			dxl.append("</text>");
+		}
+	}
+
+	private void escape(String value) {
+		if(value == null) return;
+
+		for(int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch(c) {
+			case '<':
+				dxl.append("&lt;");
+				break;
+			case '>':
+				dxl.append("&gt;");
+				break;
+			case '&':
+				dxl.append("&amp;");
+				break;
+			case '\'':
+				dxl.append("&apos;");
+				break;
+			case '"':
+				dxl.append("&quot;");
+				break;
+			default:
+				// Control characters are not allowed in XML.
+				if(c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+					dxl.append(c);
+				}
+				break;
+			}
+		}
+	}
+
+}
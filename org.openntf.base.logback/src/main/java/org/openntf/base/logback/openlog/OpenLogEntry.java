@@ -16,22 +16,31 @@
  */
 package org.openntf.base.logback.openlog;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Vector;
 
 import lotus.domino.Database;
 import lotus.domino.Document;
-import lotus.domino.Name;
 import lotus.domino.NotesException;
 import lotus.domino.RichTextItem;
-import lotus.domino.Session;
 
 import org.openntf.base.logback.core.LoggingException;
+import org.openntf.base.logback.filter.DatabaseSnapshot;
+import org.openntf.base.logback.filter.DocumentSnapshot;
+import org.openntf.base.logback.filter.DominoArguments;
 import org.openntf.base.logback.utils.LogUtils;
 import org.openntf.base.logback.utils.StringUtils;
 import org.openntf.base.logback.utils.Utils;
 
+import ch.qos.logback.classic.Level;
+
 /**
  * The original implementation of OpenLogEntry is based on;
  * 
@@ -58,9 +67,13 @@ public class OpenLogEntry implements Serializable {
 	private static final String LOG_FORM_NAME = "LogEvent";
 	private static final String AGENT_LANGUAGE = "JAVA";
 
+	// Text items can't hold more than 32k.
+	private static final int MAX_TEXT_LENGTH = 32000;
+
 	private final OpenLogAppender appender;
 
 	private Throwable baseException = null;
+	private ExceptionInfo exceptionInfo = null;
 
 	private String message = "";
 
@@ -71,6 +84,7 @@ public class OpenLogEntry implements Serializable {
 
 	private String fromAgent = null;
 	private String fromApp = null;
+	private String userName = null;
 
 	private String marker = "";
 	
@@ -80,6 +94,14 @@ public class OpenLogEntry implements Serializable {
 
 	private String loggedDocUrl = "";
 
+	private int repeatCount = 0;
+	private long firstSeen = 0;
+	private long lastSeen = 0;
+
+	private transient long journalPosition = -1;
+	private transient int failedSaves = 0;
+	private transient OpenLogWriter writer;
+
 	public OpenLogEntry(OpenLogAppender appender) {
 		this.appender = appender;
 	}
@@ -90,6 +112,20 @@ public class OpenLogEntry implements Serializable {
 
 	public void setBaseException(Throwable baseException) {
 		this.baseException = baseException;
+		this.exceptionInfo = null;
+	}
+
+	/**
+	 * Detached information about the base exception. Entries read back from the disk have no base exception, 
+	 * but this information.
+	 * 
+	 * @return null if there is no exception for this entry.
+	 */
+	public ExceptionInfo getExceptionInfo() {
+		if(exceptionInfo == null && baseException != null) {
+			exceptionInfo = new ExceptionInfo(baseException);
+		}
+		return exceptionInfo;
 	}
 
 	public String getMessage() {
@@ -129,6 +165,10 @@ public class OpenLogEntry implements Serializable {
 			this.eventSeverity = eventSeverity;
 		}
 	}
+
+	public Level getLevel() {
+		return Level.toLevel(eventSeverity, Level.INFO);
+	}
 	
 	public String getFromApp() {
 		return fromApp;
@@ -145,6 +185,21 @@ public class OpenLogEntry implements Serializable {
 	public void setFromAgent(String fromAgent) {
 		this.fromAgent = fromAgent;
 	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	/**
+	 * User of the request, e.g. from the MDC. If not set, the user of the session saving the entry is used.
+	 */
+	public void setUserName(String userName) {
+		this.userName = userName;
+	}
+
+	private String getUserName(SessionIdentity identity) {
+		return org.openntf.base.logback.utils.StringUtils.isNotEmpty(userName) ? userName : identity.getUserName();
+	}
 	
 	public String getMarker() {
 		return this.marker;
@@ -157,23 +212,80 @@ public class OpenLogEntry implements Serializable {
 	public void setLoggedDoc(Document loggedDoc) {
 		if(loggedDoc == null) return;
 		
-		try {
-			this.loggedDocUrl = loggedDoc.getNotesURL();
-		} catch (NotesException e) {
-			// Nothing to do...
-		}
+		setLoggedDoc(DominoArguments.snapshot(loggedDoc));
+	}
+	
+	public void setLoggedDoc(DocumentSnapshot loggedDoc) {
+		if(loggedDoc == null) return;
+		
+		this.loggedDocUrl = loggedDoc.getNotesUrl();
 	}
 	
 	public void setLoggedDb(Database loggedDb) {
 		if(loggedDb == null) return;
 		
-		try {
-			this.loggedDbUrl = loggedDb.getNotesURL();
-			this.loggedDbPath = loggedDb.getFilePath();
-			this.loggedDbAccessLevel = Utils.getAccessLevel(loggedDb);
-		} catch (NotesException e) {
-			// Nothing to do...
-		}
+		setLoggedDb(DominoArguments.snapshot(loggedDb));
+	}
+
+	public void setLoggedDb(DatabaseSnapshot loggedDb) {
+		if(loggedDb == null) return;
+		
+		this.loggedDbUrl = loggedDb.getNotesUrl();
+		this.loggedDbPath = loggedDb.getFilePath();
+		this.loggedDbAccessLevel = loggedDb.getAccessLevel();
+	}
+
+	/**
+	 * Creates a summary entry for repeats of this entry. The summary is written without the stack trace.
+	 */
+	public OpenLogEntry createSummary(int repeatCount, long firstSeen, long lastSeen) {
+		OpenLogEntry summary = new OpenLogEntry(appender);
+
+		summary.exceptionInfo = getExceptionInfo();
+		summary.message = message + " (repeated " + repeatCount + " more times)";
+		summary.eventType = eventType;
+		summary.eventSeverity = eventSeverity;
+		summary.timeStamp = lastSeen;
+		summary.fromAgent = fromAgent;
+		summary.fromApp = fromApp;
+		summary.userName = userName;
+		summary.marker = marker;
+		summary.loggedDbUrl = loggedDbUrl;
+		summary.loggedDbPath = loggedDbPath;
+		summary.loggedDbAccessLevel = loggedDbAccessLevel;
+		summary.loggedDocUrl = loggedDocUrl;
+		summary.writer = writer;
+		summary.repeatCount = repeatCount;
+		summary.firstSeen = firstSeen;
+		summary.lastSeen = lastSeen;
+
+		return summary;
+	}
+
+	/**
+	 * @return writer of the routed target database, or null for the default target.
+	 */
+	OpenLogWriter getWriter() {
+		return writer;
+	}
+
+	void setWriter(OpenLogWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * @return number of repeats summarized by this entry, 0 for regular entries.
+	 */
+	public int getRepeatCount() {
+		return repeatCount;
+	}
+
+	public long getFirstSeen() {
+		return firstSeen;
+	}
+
+	public long getLastSeen() {
+		return lastSeen;
 	}
 
 	public String getLoggedDbPath() {
@@ -192,49 +304,69 @@ public class OpenLogEntry implements Serializable {
 		return loggedDbUrl;
 	}
 
+	long getJournalPosition() {
+		return journalPosition;
+	}
+
+	void setJournalPosition(long journalPosition) {
+		this.journalPosition = journalPosition;
+	}
+
+	/**
+	 * @return number of failed saves so far, including this one.
+	 */
+	int addFailedSave() {
+		return ++failedSaves;
+	}
+
+	private static String truncateText(String value) {
+		return (value != null && value.length() > MAX_TEXT_LENGTH) ? value.substring(0, MAX_TEXT_LENGTH) : value;
+	}
+
 	public boolean save(Database logDb) throws LoggingException {
+		try {
+			return save(logDb, appender.getIdentityCache().get(logDb.getParent()));
+		} catch (NotesException e) {
+			throw new LoggingException("Unable to save OpenLog document", e);
+		}
+	}
+
+	/**
+	 * Saves the entry with the identity values resolved before. Batches resolve the identity only once.
+	 */
+	public boolean save(Database logDb, SessionIdentity identity) throws LoggingException {
 
 		Document logDoc = null;
 		RichTextItem rtitem = null;
 				
 		try {
-			Session session = logDb.getParent();
-			
-			String userName = session.getUserName(); 
-			String effectiveUserName = session.getEffectiveUserName();
-			
-			Name serverNameName = session.createName(session.getServerName());
-			String serverName = serverNameName.getCommon();
-			Utils.recycleObject(serverNameName);
-			
 			logDoc = logDb.createDocument();
 			rtitem = logDoc.createRichTextItem("LogDocInfo");
 
 			logDoc.appendItemValue("Form", LOG_FORM_NAME);
 
-			Throwable ee = getBaseException();
+			ExceptionInfo ee = getExceptionInfo();
 
 			if (null != ee) {
-				StackTraceElement ste = ee.getStackTrace()[0];
-				if (ee instanceof NotesException) {
-					logDoc.replaceItemValue("LogErrorNumber", ((NotesException) ee).id);
-					logDoc.replaceItemValue("LogErrorMessage", ((NotesException) ee).text);
+				if (ee.isNotesException()) {
+					logDoc.replaceItemValue("LogErrorNumber", ee.getErrorNumber());
+					logDoc.replaceItemValue("LogErrorMessage", truncateText(ee.getErrorText()));
 				} else {
 					if(StringUtils.isEmpty(getMessage())) {
-						logDoc.replaceItemValue("LogErrorMessage", ee.getStackTrace()[0].toString());
+						logDoc.replaceItemValue("LogErrorMessage", ee.getTopFrame());
 					} else {
-						logDoc.replaceItemValue("LogErrorMessage", getMessage());
+						logDoc.replaceItemValue("LogErrorMessage", truncateText(getMessage()));
 					}
 				}
 
-				if (isError() || ! appender.isSuppressEventStack()) {
-					logDoc.replaceItemValue("LogStackTrace", LogUtils.getStackTraceVector(ee));
+				if (repeatCount == 0 && (isError() || ! appender.isSuppressEventStack())) {
+					logDoc.replaceItemValue("LogStackTrace", ee.getStackTrace());
 				}
 
-				logDoc.replaceItemValue("LogErrorLine", ste.getLineNumber());
-				logDoc.replaceItemValue("LogFromMethod", ste.getClassName() + "." + ste.getMethodName());
+				logDoc.replaceItemValue("LogErrorLine", ee.getErrorLine());
+				logDoc.replaceItemValue("LogFromMethod", ee.getFromMethod());
 			} else {
-				logDoc.replaceItemValue("LogErrorMessage", getMessage());
+				logDoc.replaceItemValue("LogErrorMessage", truncateText(getMessage()));
 			}
 
 			Utils.saveDateField(logDoc, "LogEventTime", new Date(getTimeStamp()));
@@ -254,17 +386,23 @@ public class OpenLogEntry implements Serializable {
 				logDoc.replaceItemValue("LogFromDatabase", getFromApp());
 			}
 			
-			logDoc.replaceItemValue("LogUserRoles", Utils.getUserRoles(session));
-			logDoc.replaceItemValue("LogClientVersion", Utils.getClientVersion(session));
+			logDoc.replaceItemValue("LogUserRoles", identity.getUserRoles());
+			logDoc.replaceItemValue("LogClientVersion", identity.getClientVersion());
 			logDoc.replaceItemValue("LogAgentLanguage", AGENT_LANGUAGE);
 
-			logDoc.replaceItemValue("LogFromServer", serverName);
-			logDoc.replaceItemValue("LogUserName", userName);
-			logDoc.replaceItemValue("LogEffectiveName", effectiveUserName);
+			logDoc.replaceItemValue("LogFromServer", identity.getServerName());
+			logDoc.replaceItemValue("LogUserName", getUserName(identity));
+			logDoc.replaceItemValue("LogEffectiveName", identity.getEffectiveUserName());
 
 			logDoc.replaceItemValue("LogSeverity", getEventSeverity());
 			logDoc.replaceItemValue("LogFromAgent", getFromAgent());
 			logDoc.replaceItemValue("LogMarker", getMarker());
+
+			if(repeatCount > 0) {
+				logDoc.replaceItemValue("LogRepeatCount", repeatCount);
+				Utils.saveDateField(logDoc, "LogFirstSeen", new Date(firstSeen));
+				Utils.saveDateField(logDoc, "LogLastSeen", new Date(lastSeen));
+			}
 			
 			if(org.openntf.base.logback.utils.StringUtils.isNotEmpty(getLoggedDbUrl())) {
 				logDoc.replaceItemValue("LogFromDatabase", getLoggedDbPath());
@@ -312,4 +450,283 @@ public class OpenLogEntry implements Serializable {
 		}
 	}
 
+	/**
+	 * Appends the entry as a DXL document. Items are the same as {@link #save(Database, SessionIdentity)}.
+	 */
+	public void appendDxl(OpenLogDxlBuilder dxl, SessionIdentity identity) {
+		List<String> docInfo = new ArrayList<String>();
+
+		dxl.startDocument();
+		dxl.text("Form", LOG_FORM_NAME);
+
+		ExceptionInfo ee = getExceptionInfo();
+
+		if (null != ee) {
+			if (ee.isNotesException()) {
+				dxl.number("LogErrorNumber", ee.getErrorNumber());
+				dxl.text("LogErrorMessage", truncateText(ee.getErrorText()));
+			} else {
+				dxl.text("LogErrorMessage", truncateText(StringUtils.isEmpty(getMessage()) ? ee.getTopFrame() : getMessage()));
+			}
+
+			if (repeatCount == 0 && (isError() || ! appender.isSuppressEventStack())) {
+				dxl.textList("LogStackTrace", ee.getStackTrace());
+			}
+
+			dxl.number("LogErrorLine", ee.getErrorLine());
+			dxl.text("LogFromMethod", ee.getFromMethod());
+		} else {
+			dxl.text("LogErrorMessage", truncateText(getMessage()));
+		}
+
+		dxl.dateTime("LogEventTime", new Date(getTimeStamp()));
+		dxl.dateTime("LogAgentStartTime", new Date(getTimeStamp()));
+		dxl.text("LogEventType", eventType);
+
+		// If greater than 32k, put in logDocInfo
+		if (getMessage().length() > 32000) {
+			docInfo.add(getMessage());
+		} else {
+			dxl.text("LogMessage", getMessage());
+		}
+
+		// An item can be written only once in DXL.
+		if(org.openntf.base.logback.utils.StringUtils.isNotEmpty(getLoggedDbUrl())) {
+			dxl.text("LogFromDatabase", getLoggedDbPath());
+			dxl.text("LogAccessLevel", getLoggedDbAccessLevel());
+
+			docInfo.add("The database associated with this event is:");
+			docInfo.add("Database Url: " + getLoggedDbUrl());
+		} else if(org.openntf.base.logback.utils.StringUtils.isNotEmpty(getFromApp())) {
+			dxl.text("LogFromDatabase", getFromApp());
+		}
+
+		dxl.textList("LogUserRoles", identity.getUserRoles());
+		dxl.textList("LogClientVersion", identity.getClientVersion());
+		dxl.text("LogAgentLanguage", AGENT_LANGUAGE);
+
+		dxl.text("LogFromServer", identity.getServerName());
+		dxl.text("LogUserName", getUserName(identity));
+		dxl.text("LogEffectiveName", identity.getEffectiveUserName());
+
+		dxl.text("LogSeverity", getEventSeverity());
+		dxl.text("LogFromAgent", getFromAgent());
+		dxl.text("LogMarker", getMarker());
+
+		if(repeatCount > 0) {
+			dxl.number("LogRepeatCount", repeatCount);
+			dxl.dateTime("LogFirstSeen", new Date(firstSeen));
+			dxl.dateTime("LogLastSeen", new Date(lastSeen));
+		}
+
+		if(org.openntf.base.logback.utils.StringUtils.isNotEmpty(getLoggedDocUrl())) {
+			docInfo.add("The document associated with this event is:");
+			docInfo.add("Document Url: " + getLoggedDocUrl());
+		}
+
+		if (appender.getLogExpireDays()>0) {
+			Calendar expireDate = Calendar.getInstance();
+			expireDate.setTimeInMillis(getTimeStamp());
+			expireDate.add(Calendar.DATE, appender.getLogExpireDays());
+
+			dxl.dateTime("ExpireDate", expireDate.getTime());
+		}
+
+		dxl.richText("LogDocInfo", docInfo);
+		dxl.endDocument();
+	}
+
+	/**
+	 * Writes the entry in a compact binary form. The base exception is written as {@link ExceptionInfo}.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(timeStamp);
+		writeString(out, message);
+		writeString(out, eventType);
+		writeString(out, eventSeverity);
+		writeString(out, fromAgent);
+		writeString(out, fromApp);
+		writeString(out, userName);
+		writeString(out, marker);
+		writeString(out, loggedDbUrl);
+		writeString(out, loggedDbPath);
+		writeString(out, loggedDbAccessLevel);
+		writeString(out, loggedDocUrl);
+		out.writeInt(repeatCount);
+		out.writeLong(firstSeen);
+		out.writeLong(lastSeen);
+
+		ExceptionInfo ee = getExceptionInfo();
+		out.writeBoolean(ee != null);
+
+		if(ee != null) {
+			ee.writeTo(out);
+		}
+	}
+
+	/**
+	 * Reads an entry written by {@link #writeTo(DataOutput)}.
+	 * 
+	 * @param version journal format the entry has been written in. Version 1 has no repeat counts, version 2 
+	 * has no user name.
+	 */
+	public static OpenLogEntry readFrom(OpenLogAppender appender, DataInput in, int version) throws IOException {
+		OpenLogEntry entry = new OpenLogEntry(appender);
+
+		entry.timeStamp = in.readLong();
+		entry.message = readString(in);
+		entry.eventType = readString(in);
+		entry.eventSeverity = readString(in);
+		entry.fromAgent = readString(in);
+		entry.fromApp = readString(in);
+		if(version >= 3) {
+			entry.userName = readString(in);
+		}
+		entry.marker = readString(in);
+		entry.loggedDbUrl = readString(in);
+		entry.loggedDbPath = readString(in);
+		entry.loggedDbAccessLevel = readString(in);
+		entry.loggedDocUrl = readString(in);
+		if(version >= 2) {
+			entry.repeatCount = in.readInt();
+			entry.firstSeen = in.readLong();
+			entry.lastSeen = in.readLong();
+		}
+
+		if(in.readBoolean()) {
+			entry.exceptionInfo = ExceptionInfo.readFrom(in);
+		}
+
+		return entry;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		if(value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+
+		if(length < 0) {
+			return null;
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Values of the base exception needed for the OpenLog document. 
+	 */
+	public static class ExceptionInfo implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private boolean notesException = false;
+		private int errorNumber = 0;
+		private String errorText = "";
+		private String topFrame = "";
+		private int errorLine = 0;
+		private String fromMethod = "";
+		private Vector<String> stackTrace;
+
+		// Stack trace will be rendered only if needed.
+		private transient Throwable throwable;
+
+		private ExceptionInfo() {
+		}
+
+		public ExceptionInfo(Throwable ee) {
+			if(ee instanceof NotesException) {
+				notesException = true;
+				errorNumber = ((NotesException) ee).id;
+				errorText = ((NotesException) ee).text;
+			}
+
+			StackTraceElement[] frames = ee.getStackTrace();
+
+			if(frames != null && frames.length > 0) {
+				StackTraceElement ste = frames[0];
+				topFrame = ste.toString();
+				errorLine = ste.getLineNumber();
+				fromMethod = ste.getClassName() + "." + ste.getMethodName();
+			}
+
+			throwable = ee;
+		}
+
+		public boolean isNotesException() {
+			return notesException;
+		}
+
+		public int getErrorNumber() {
+			return errorNumber;
+		}
+
+		public String getErrorText() {
+			return errorText;
+		}
+
+		public String getTopFrame() {
+			return topFrame;
+		}
+
+		public int getErrorLine() {
+			return errorLine;
+		}
+
+		public String getFromMethod() {
+			return fromMethod;
+		}
+
+		public Vector<String> getStackTrace() {
+			if(stackTrace == null) {
+				stackTrace = (throwable == null) ? new Vector<String>() : LogUtils.getStackTraceVector(throwable);
+			}
+			return stackTrace;
+		}
+
+		void writeTo(DataOutput out) throws IOException {
+			out.writeBoolean(notesException);
+			out.writeInt(errorNumber);
+			writeString(out, errorText);
+			writeString(out, topFrame);
+			out.writeInt(errorLine);
+			writeString(out, fromMethod);
+
+			Vector<String> lines = getStackTrace();
+
+			out.writeInt(lines.size());
+			for(String line: lines) {
+				writeString(out, line);
+			}
+		}
+
+		static ExceptionInfo readFrom(DataInput in) throws IOException {
+			ExceptionInfo info = new ExceptionInfo();
+
+			info.notesException = in.readBoolean();
+			info.errorNumber = in.readInt();
+			info.errorText = readString(in);
+			info.topFrame = readString(in);
+			info.errorLine = in.readInt();
+			info.fromMethod = readString(in);
+
+			int size = in.readInt();
+			info.stackTrace = new Vector<String>(size);
+			for(int i=0; i<size; i++) {
+				info.stackTrace.add(readString(in));
+			}
+
+			return info;
+		}
+	}
+
 }
@@ -0,0 +1,514 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal for OpenLog entries.
+ * 
+ * Each record is written as [length][crc][entry]. The header keeps a checkpoint: records before the checkpoint
+ * have been saved into the OpenLog database. Records after the checkpoint are replayed after a restart.
+ * 
+ * The journal is used in two ways:
+ * 
+ * - Write-ahead: every entry is written before it is queued. Nothing is lost if the server goes down.
+ * - Overflow only: entries are written only if they don't fit into the memory queue (SPILL policy).
+ * 
+ * Entries which are written but not queued in the memory (the backlog) are read back by the writer with 
+ * {@link #replay(List, int)} once the memory queue is empty. Positions are logical; they don't change when 
+ * the saved part of the file is reclaimed.
+ * 
+ * A journal written by an older version is copied aside and converted to the current format. A journal in an 
+ * unknown format is copied aside and not replayed.
+ *
+ */
+public class OpenLogJournal {
+
+	public enum Result {
+		/** Entry is in the memory queue. */
+		QUEUED,
+		/** Entry is only in the journal. It will be replayed later. */
+		JOURNALED,
+		/** Entry could not be written into the journal. */
+		FAILED
+	}
+
+	private static final int MAGIC = 0x584C424A;
+	private static final int VERSION = 3;
+	// Oldest format OpenLogEntry can read
+	private static final int MIN_VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int CHECKPOINT_OFFSET = 8;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final int COPY_CHUNK_SIZE = 64 * 1024;
+	private static final long FORCE_INTERVAL = 1000L;
+
+	private final OpenLogAppender appender;
+	private final File file;
+	private final long size;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+
+	// Logical position of the first byte after the header
+	private long base = 0;
+
+	private long checkpoint = 0;
+	private long replayPosition = 0;
+	private long writePosition = 0;
+
+	private long lastForce = 0;
+
+	// Format of the records being replayed
+	private int recordVersion = VERSION;
+
+	public OpenLogJournal(OpenLogAppender appender, File file, long size) {
+		this.appender = appender;
+		this.file = file;
+		this.size = Math.max(size, 64 * 1024);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Maps the journal file. Records after the last checkpoint become the backlog.
+	 * 
+	 * @return false if the journal is not available.
+	 */
+	public synchronized boolean open() {
+		if(buffer != null) return true;
+
+		try {
+			File folder = file.getParentFile();
+			if(folder != null && !folder.exists()) {
+				folder.mkdirs();
+			}
+
+			raf = new RandomAccessFile(file, "rw");
+			long mapSize = Math.max(size, raf.length());
+
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+
+			int magic = buffer.getInt(0);
+			int version = buffer.getInt(4);
+
+			if(magic == MAGIC && version == VERSION) {
+				scan();
+			} else if(magic == 0) {
+				// New file
+				reset();
+			} else if(magic == MAGIC && version >= MIN_VERSION && version < VERSION) {
+				convert(version);
+			} else {
+				File backup = copyAside();
+				appender.addWarn("OpenLog journal has an unknown format. Its entries will not be replayed. It has been copied to " + backup);
+				reset();
+			}
+
+			if(writePosition > checkpoint) {
+				appender.addInfo("OpenLog journal has " + (writePosition - checkpoint) + " bytes to be replayed: " + file);
+			}
+
+			return true;
+		} catch (IOException e) {
+			appender.addError("Unable to open the OpenLog journal: " + file, e);
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the records after the checkpoint.
+	 */
+	private void scan() {
+		long start = buffer.getLong(CHECKPOINT_OFFSET);
+		if(start < HEADER_SIZE || start > buffer.capacity()) {
+			start = HEADER_SIZE;
+		}
+
+		int position = (int) start;
+		while(readRecord(position) != null) {
+			position += RECORD_HEADER_SIZE + buffer.getInt(position);
+		}
+
+		base = 0;
+		checkpoint = toLogical(start);
+		replayPosition = checkpoint;
+		writePosition = toLogical(position);
+	}
+
+	private void reset() {
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(CHECKPOINT_OFFSET, HEADER_SIZE);
+		buffer.putInt(HEADER_SIZE, 0);
+		buffer.force();
+
+		scan();
+	}
+
+	/**
+	 * Rewrites the records of an older format in the current one. The old file is kept as a copy until the 
+	 * conversion is complete.
+	 */
+	private void convert(int version) throws IOException {
+		File backup = copyAside();
+
+		scan();
+
+		List<OpenLogEntry> backlog = new ArrayList<OpenLogEntry>();
+		recordVersion = version;
+		try {
+			replay(backlog, Integer.MAX_VALUE);
+		} finally {
+			recordVersion = VERSION;
+		}
+
+		reset();
+
+		int lost = 0;
+		for(OpenLogEntry entry : backlog) {
+			byte[] data = serialize(entry);
+			if(data == null || !write(entry, data)) {
+				lost++;
+			}
+		}
+
+		buffer.force();
+
+		if(lost > 0) {
+			appender.addWarn("OpenLog journal has been converted from version " + version + ", " + lost + " entries did not fit. Old journal has been kept: " + backup);
+		} else {
+			appender.addInfo("OpenLog journal has been converted from version " + version + ".");
+			backup.delete();
+		}
+	}
+
+	/**
+	 * Copies the journal file next to it. Copying works while the file is mapped, unlike renaming on some 
+	 * platforms.
+	 */
+	private File copyAside() throws IOException {
+		File backup = new File(file.getPath() + "." + System.currentTimeMillis() + ".old");
+
+		OutputStream out = new FileOutputStream(backup);
+		try {
+			ByteBuffer source = buffer.duplicate();
+			source.position(0);
+
+			byte[] chunk = new byte[COPY_CHUNK_SIZE];
+			while(source.hasRemaining()) {
+				int count = Math.min(chunk.length, source.remaining());
+				source.get(chunk, 0, count);
+				out.write(chunk, 0, count);
+			}
+		} finally {
+			out.close();
+		}
+
+		return backup;
+	}
+
+	public synchronized void close() {
+		if(buffer != null) {
+			buffer.force();
+			buffer = null;
+		}
+
+		try {
+			if(raf != null) {
+				raf.close();
+			}
+		} catch (IOException e) {
+			// Nothing to do
+		}
+		raf = null;
+	}
+
+	private int toPhysical(long logical) {
+		return (int) (HEADER_SIZE + logical - base);
+	}
+
+	private long toLogical(long physical) {
+		return physical - HEADER_SIZE + base;
+	}
+
+	/**
+	 * Adds an entry through the journal.
+	 * 
+	 * If there is no backlog and the caller reserved a place in the memory queue, the entry is added to the 
+	 * queue. Otherwise, it becomes a part of the backlog. Queueing happens inside the journal lock, so the 
+	 * memory queue and the journal have the same order.
+	 * 
+	 * @param data serialized entry, or null if the entry should be written only when it's not queued.
+	 */
+	public synchronized Result offer(OpenLogEntry entry, byte[] data, boolean reserved, Queue<OpenLogEntry> queue) {
+		if(buffer == null) {
+			return Result.FAILED;
+		}
+
+		boolean queued = reserved && replayPosition == writePosition;
+
+		if(data == null) {
+			if(queued) {
+				queue.offer(entry);
+				return Result.QUEUED;
+			}
+			data = serialize(entry);
+		}
+
+		if(data == null || !write(entry, data)) {
+			return Result.FAILED;
+		}
+
+		if(queued) {
+			replayPosition = writePosition;
+			queue.offer(entry);
+			return Result.QUEUED;
+		}
+
+		return Result.JOURNALED;
+	}
+
+	private boolean write(OpenLogEntry entry, byte[] data) {
+		int required = RECORD_HEADER_SIZE + data.length + 4;
+
+		if(toPhysical(writePosition) + required > buffer.capacity()) {
+			compact();
+
+			if(toPhysical(writePosition) + required > buffer.capacity()) {
+				return false;
+			}
+		}
+
+		int position = toPhysical(writePosition);
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		ByteBuffer target = buffer.duplicate();
+		target.position(position + RECORD_HEADER_SIZE);
+		target.put(data);
+		target.putInt(0); // End marker
+
+		buffer.putInt(position + 4, (int) crc.getValue());
+		buffer.putInt(position, data.length); // Commit
+
+		entry.setJournalPosition(writePosition);
+		writePosition += RECORD_HEADER_SIZE + data.length;
+
+		return true;
+	}
+
+	/**
+	 * Moves unsaved records to the beginning of the file. This is done only if the unsaved records don't overlap
+	 * their new place, so they are intact at the old place until the header points to the new one. Otherwise
+	 * the journal is full until more records are saved.
+	 */
+	private void compact() {
+		int from = toPhysical(checkpoint);
+		int length = toPhysical(writePosition) - from;
+
+		if(HEADER_SIZE + length + 4 > from) {
+			return;
+		}
+
+		byte[] chunk = new byte[Math.max(Math.min(length, COPY_CHUNK_SIZE), 1)];
+		ByteBuffer source = buffer.duplicate();
+		ByteBuffer target = buffer.duplicate();
+
+		for(int copied = 0; copied < length; copied += chunk.length) {
+			int count = Math.min(chunk.length, length - copied);
+
+			source.position(from + copied);
+			source.get(chunk, 0, count);
+
+			target.position(HEADER_SIZE + copied);
+			target.put(chunk, 0, count);
+		}
+
+		buffer.putInt(HEADER_SIZE + length, 0);
+
+		// Copy must be on the disk before the checkpoint is moved to it.
+		buffer.force();
+
+		base = checkpoint;
+		buffer.putLong(CHECKPOINT_OFFSET, HEADER_SIZE);
+
+		buffer.force();
+		lastForce = System.currentTimeMillis();
+	}
+
+	/**
+	 * Reads backlog entries into the given list.
+	 * 
+	 * @return number of entries read.
+	 */
+	public synchronized int replay(List<OpenLogEntry> target, int maxCount) {
+		int count = 0;
+
+		while(buffer != null && count < maxCount && replayPosition < writePosition) {
+			int position = toPhysical(replayPosition);
+			byte[] data = readRecord(position);
+
+			if(data == null) {
+				// Should not happen. Skip the rest.
+				appender.addError("Corrupted record in the OpenLog journal. Remaining backlog will be discarded.");
+				replayPosition = writePosition;
+				break;
+			}
+
+			try {
+				OpenLogEntry entry = OpenLogEntry.readFrom(appender, new DataInputStream(new ByteArrayInputStream(data)), recordVersion);
+				entry.setJournalPosition(replayPosition);
+				target.add(entry);
+				count++;
+			} catch (IOException e) {
+				appender.addError("Unable to read a record from the OpenLog journal. It will be skipped.", e);
+			}
+
+			replayPosition += RECORD_HEADER_SIZE + data.length;
+		}
+
+		return count;
+	}
+
+	private byte[] readRecord(int position) {
+		if(position + RECORD_HEADER_SIZE > buffer.capacity()) {
+			return null;
+		}
+
+		int length = buffer.getInt(position);
+
+		if(length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+			return null;
+		}
+
+		byte[] data = new byte[length];
+
+		ByteBuffer source = buffer.duplicate();
+		source.position(position + RECORD_HEADER_SIZE);
+		source.get(data);
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		return ((int) crc.getValue() == buffer.getInt(position + 4)) ? data : null;
+	}
+
+	/**
+	 * @return true if some entries exist only in the journal.
+	 */
+	public synchronized boolean hasBacklog() {
+		return replayPosition < writePosition;
+	}
+
+	/**
+	 * @return number of bytes waiting after the checkpoint.
+	 */
+	public synchronized long getPendingBytes() {
+		return writePosition - checkpoint;
+	}
+
+	/**
+	 * Marks records before the lowest unsaved position as saved. Entries kept only in the memory have no 
+	 * position and are skipped.
+	 * 
+	 * @param pending entries in the current batch, in order.
+	 * @param queue memory queue of the writer.
+	 */
+	public synchronized void checkpoint(List<OpenLogEntry> pending, Queue<OpenLogEntry> queue) {
+		if(buffer == null) return;
+
+		long position = getFirstPosition(pending);
+		long queued = getFirstPosition(queue);
+
+		if(position < 0 || (queued >= 0 && queued < position)) {
+			position = queued;
+		}
+
+		if(position < 0) {
+			position = replayPosition;
+		}
+
+		if(position <= checkpoint) {
+			return;
+		}
+
+		checkpoint = Math.min(position, replayPosition);
+
+		buffer.putLong(CHECKPOINT_OFFSET, toPhysical(checkpoint));
+
+		long now = System.currentTimeMillis();
+		if(now - lastForce > FORCE_INTERVAL) {
+			buffer.force();
+			lastForce = now;
+		}
+	}
+
+	/**
+	 * Entries with a position are in the journal order, so the first one is the lowest.
+	 * 
+	 * @return -1 if no entry has a position.
+	 */
+	private long getFirstPosition(Iterable<OpenLogEntry> entries) {
+		for(OpenLogEntry entry : entries) {
+			if(entry.getJournalPosition() >= 0) {
+				return entry.getJournalPosition();
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Serializes the entry for the journal.
+	 * 
+	 * @return null if the entry could not be serialized.
+	 */
+	public byte[] serialize(OpenLogEntry entry) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+			entry.writeTo(new DataOutputStream(bytes));
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			appender.addError("Unable to serialize the OpenLog entry.", e);
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.util.Locale;
+
+import org.openntf.base.logback.utils.StringUtils;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Routing rule for OpenLog entries. A rule is defined as <code>type:value=target</code>.
+ * 
+ * - <code>app:MyApp</code> matches the application (MDC "app" or the default app).
+ * - <code>marker:SECURITY</code> matches events having the marker (including nested markers).
+ * - <code>level:ERROR</code> matches events at the given level or above.
+ * - <code>logger:com.acme.</code> matches logger names starting with the prefix.
+ * 
+ * Target is <code>server!!path</code> or only the path for the local server.
+ *
+ */
+public class OpenLogRoute {
+
+	public enum MatchType {
+		APP, MARKER, LEVEL, LOGGER
+	}
+
+	private final MatchType type;
+	private final String value;
+	private final Level level;
+
+	private final String targetDbServer;
+	private final String targetDbPath;
+
+	public OpenLogRoute(MatchType type, String value, String targetDbServer, String targetDbPath) {
+		this.type = type;
+		this.value = value;
+		this.level = (type == MatchType.LEVEL) ? Level.toLevel(value, Level.ERROR) : null;
+		this.targetDbServer = targetDbServer;
+		this.targetDbPath = targetDbPath;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the rule is malformed.
+	 */
+	public static OpenLogRoute parse(String rule) {
+		int colon = rule.indexOf(':');
+		int equals = rule.lastIndexOf('=');
+
+		if(colon < 1 || equals < colon) {
+			throw new IllegalArgumentException("OpenLog route should be in 'type:value=target' format: " + rule);
+		}
+
+		MatchType type;
+		try {
+			type = MatchType.valueOf(rule.substring(0, colon).trim().toUpperCase(Locale.ENGLISH));
+		} catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown OpenLog route type: " + rule);
+		}
+
+		String value = rule.substring(colon + 1, equals).trim();
+		String target = rule.substring(equals + 1).trim();
+
+		if(StringUtils.isEmpty(value) || StringUtils.isEmpty(target)) {
+			throw new IllegalArgumentException("OpenLog route should be in 'type:value=target' format: " + rule);
+		}
+
+		if(type == MatchType.LEVEL && Level.toLevel(value, null) == null) {
+			throw new IllegalArgumentException("Unknown level in OpenLog route: " + rule);
+		}
+
+		int separator = target.indexOf("!!");
+		if(separator < 0) {
+			return new OpenLogRoute(type, value, "", target);
+		}
+
+		return new OpenLogRoute(type, value, target.substring(0, separator), target.substring(separator + 2));
+	}
+
+	public boolean matches(ILoggingEvent event, String app) {
+		switch(type) {
+		case APP:
+			return value.equalsIgnoreCase(app);
+		case MARKER:
+			Marker marker = event.getMarker();
+			return marker != null && marker.contains(value);
+		case LEVEL:
+			return event.getLevel().isGreaterOrEqual(level);
+		case LOGGER:
+			return event.getLoggerName() != null && event.getLoggerName().startsWith(value);
+		default:
+			return false;
+		}
+	}
+
+	public String getTargetDbServer() {
+		return targetDbServer;
+	}
+
+	public String getTargetDbPath() {
+		return targetDbPath;
+	}
+
+	/**
+	 * @return key identifying the target database.
+	 */
+	public String getTargetKey() {
+		return getTargetKey(targetDbServer, targetDbPath);
+	}
+
+	public static String getTargetKey(String server, String path) {
+		return server.toLowerCase(Locale.ENGLISH) + "!!" + path.replace('\\', '/').toLowerCase(Locale.ENGLISH);
+	}
+
+	@Override
+	public String toString() {
+		return type.name().toLowerCase(Locale.ENGLISH) + ":" + value + "=" + targetDbServer + "!!" + targetDbPath;
+	}
+
+}
@@ -0,0 +1,826 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lotus.domino.Database;
+import lotus.domino.Document;
+import lotus.domino.DxlImporter;
+import lotus.domino.NotesException;
+import lotus.domino.Session;
+
+import org.openntf.base.logback.core.LoggingException;
+import org.openntf.base.logback.metrics.LatencyHistogram;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.metrics.StripedCounter;
+import org.openntf.base.logback.utils.DominoRunner;
+import org.openntf.base.logback.utils.DominoRunner.SessionRoutine;
+import org.openntf.base.logback.utils.SessionLease;
+import org.openntf.base.logback.utils.StringUtils;
+import org.openntf.base.logback.utils.LogUtils;
+import org.openntf.base.logback.utils.ReentrancyGuard;
+import org.openntf.base.logback.utils.Utils;
+
+/**
+ * Moves OpenLog entries into the target database.
+ *
+ * Producers only enqueue entries into a lock-free queue. Entries are saved in batches, either by the caller
+ * (synchronous mode, see {@link #flush()}) or by a dedicated writer thread (asynchronous mode).
+ *
+ * Entries that could not be saved are kept at the head of the next batch. The queue is bounded by the queue 
+ * capacity of the appender. Beyond the capacity, the {@link OverflowPolicy} decides.
+ *
+ */
+public class OpenLogWriter implements Runnable {
+
+	private static final long STOP_TIMEOUT = 10000L;
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int DROP_WARNING_INTERVAL = 1000;
+	private static final int MAX_SAVE_ATTEMPTS = 5;
+
+	private final OpenLogAppender appender;
+
+	private final String targetDbServer;
+	private final String targetDbPath;
+
+	private final Queue<OpenLogEntry> queue = new ConcurrentLinkedQueue<OpenLogEntry>();
+	private final AtomicInteger queueSize = new AtomicInteger();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong savedCount = new AtomicLong();
+
+	// Shared by all writers of the appender.
+	private final StripedCounter savedMetric;
+	private final StripedCounter droppedMetric;
+	private final LatencyHistogram saveLatency;
+
+	// Set once by openJournal().
+	private volatile OpenLogJournal journal;
+	private volatile boolean writeAhead;
+
+	// Owned by the thread holding the flushLock.
+	private final List<OpenLogEntry> batch = new ArrayList<OpenLogEntry>();
+	private Database logDb;
+	private Session logDbSession;
+	private long logDbLastUsed;
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private volatile Thread writerThread;
+	private volatile SessionLease lease;
+	private volatile boolean running = false;
+
+	public OpenLogWriter(OpenLogAppender appender, String targetDbServer, String targetDbPath) {
+		this(appender, targetDbServer, targetDbPath, true);
+	}
+
+	/**
+	 * @param openJournal false to open the journal later by {@link #openJournal()}, e.g. when the writer being 
+	 * replaced still has the same journal file open.
+	 */
+	public OpenLogWriter(OpenLogAppender appender, String targetDbServer, String targetDbPath, boolean openJournal) {
+		this.appender = appender;
+		this.targetDbServer = targetDbServer;
+		this.targetDbPath = targetDbPath;
+
+		this.savedMetric = Metrics.counter(Metrics.name("openlog", appender.getName(), "saved"));
+		this.droppedMetric = Metrics.counter(Metrics.name("openlog", appender.getName(), "dropped"));
+		this.saveLatency = Metrics.histogram(Metrics.name("openlog", appender.getName(), "save"));
+
+		if(openJournal) {
+			openJournal();
+		}
+	}
+
+	private boolean isJournalUsed() {
+		return appender.isJournal() || appender.getOverflowPolicy() == OverflowPolicy.SPILL;
+	}
+
+	/**
+	 * Opens the journal of the target database, if configured. Entries offered before are kept in the memory 
+	 * queue.
+	 */
+	public void openJournal() {
+		if(journal != null || ! isJournalUsed()) return;
+
+		OpenLogJournal openedJournal = new OpenLogJournal(appender, getJournalFile(), appender.getJournalSize());
+
+		if(! openedJournal.open()) {
+			appender.addWarn("OpenLog journal is not available. Entries will be kept in the memory only.");
+			return;
+		}
+
+		flushLock.lock();
+		try {
+			writeAhead = appender.isJournal();
+			journal = openedJournal;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if this writer has its journal open in the given file.
+	 */
+	public boolean hasJournal(File file) {
+		return journal != null && getJournalFile().equals(file);
+	}
+
+	/**
+	 * Takes the entries left in the journal of this stopped writer. The journal is emptied, so the entries are
+	 * handed over only once. Used when no new writer opens the same journal file, e.g. the target database has 
+	 * been changed, which would leave the entries stranded in the old file.
+	 */
+	public List<OpenLogEntry> drainJournal() {
+		List<OpenLogEntry> entries = new ArrayList<OpenLogEntry>();
+
+		if(journal == null) return entries;
+
+		OpenLogJournal oldJournal = new OpenLogJournal(appender, getJournalFile(), appender.getJournalSize());
+
+		if(! oldJournal.open()) return entries;
+
+		try {
+			oldJournal.replay(entries, Integer.MAX_VALUE);
+			oldJournal.checkpoint(Collections.<OpenLogEntry>emptyList(), new LinkedList<OpenLogEntry>());
+		} finally {
+			oldJournal.close();
+		}
+
+		// Positions belong to the old journal.
+		for(OpenLogEntry entry : entries) {
+			entry.setJournalPosition(-1);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Takes the entries left after {@link #stop()}. Entries in the journal are not returned, they will be 
+	 * replayed by the next writer for the same target. Without write-ahead, queued entries are only in the
+	 * memory (the journal takes the overflow only), so they are returned.
+	 */
+	public List<OpenLogEntry> drainUnsaved() {
+		List<OpenLogEntry> entries = new ArrayList<OpenLogEntry>();
+
+		flushLock.lock();
+		try {
+			for(OpenLogEntry entry : batch) {
+				if(entry.getJournalPosition() < 0) {
+					entries.add(entry);
+				}
+			}
+			batch.clear();
+
+			OpenLogEntry entry;
+			while((entry = queue.poll()) != null) {
+				if(entry.getJournalPosition() < 0) {
+					entries.add(entry);
+				}
+			}
+
+			queueSize.set(0);
+		} finally {
+			flushLock.unlock();
+		}
+
+		return entries;
+	}
+
+	public File getJournalFile() {
+		String target = (targetDbServer + "_" + targetDbPath).replaceAll("[^A-Za-z0-9]", "_");
+		return new File(appender.getJournalFolder(), LogUtils.getPlatformName() + "-openlog-" + target + ".journal");
+	}
+
+	/**
+	 * Starts the writer thread for the asynchronous mode.
+	 */
+	public void start() {
+		if(running) return;
+
+		running = true;
+
+		// Each writer has its own session thread, so writers don't wait for each other.
+		lease = DominoRunner.createLease("XLogback OpenLog Session [" + targetDbPath + "]");
+
+		Thread thread = new Thread(this, "XLogback OpenLog Writer [" + targetDbPath + "]");
+		thread.setDaemon(true);
+
+		writerThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer thread, if any. Remaining entries will be flushed before returning.
+	 */
+	public void stop() {
+		Thread thread = writerThread;
+		running = false;
+
+		if(thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writerThread = null;
+		}
+
+		if(getQueueSize() > 0 || (journal != null && journal.hasBacklog())) {
+			flush();
+		}
+
+		releaseTargetDb();
+
+		if(lease != null) {
+			lease.stop();
+			lease = null;
+		}
+
+		// Unsaved entries will be replayed from the journal with the next start.
+		if(journal != null) {
+			journal.close();
+		}
+	}
+
+	public boolean isAsync() {
+		return writerThread != null;
+	}
+
+	/**
+	 * Adds an entry to the queue. This is the only cost for the caller in the asynchronous mode, unless the
+	 * queue is full.
+	 * 
+	 * With a journal, the entry is written into the journal first (write-ahead) or when it doesn't fit into the 
+	 * memory (SPILL). The overflow policy applies only if the journal is full.
+	 */
+	public void offer(OpenLogEntry entry) {
+		boolean reserved = reserve();
+		OpenLogJournal journal = this.journal;
+
+		if(journal != null) {
+			byte[] data = writeAhead ? journal.serialize(entry) : null;
+
+			switch(journal.offer(entry, data, reserved, queue)) {
+			case QUEUED:
+				signalIfBatchReady();
+				return;
+			case JOURNALED:
+				if(reserved) {
+					queueSize.decrementAndGet();
+				}
+				return;
+			default:
+				// Journal is full. Continue with the memory queue.
+				break;
+			}
+		}
+
+		if(reserved) {
+			enqueue(entry);
+			return;
+		}
+
+		switch(appender.getOverflowPolicy()) {
+		case DROP_BELOW_LEVEL:
+			if(entry.getLevel().isGreaterOrEqual(appender.getOverflowLevel())) {
+				replaceOldest(entry);
+			} else {
+				drop();
+			}
+			break;
+		case BLOCK:
+			offerBlocking(entry);
+			break;
+		case SPILL:
+			// Journal is not available or full.
+			drop();
+			break;
+		default:
+			replaceOldest(entry);
+			break;
+		}
+	}
+
+	private boolean reserve() {
+		int capacity = appender.getQueueCapacity();
+
+		for(;;) {
+			int size = queueSize.get();
+
+			if(size >= capacity) {
+				return false;
+			}
+
+			if(queueSize.compareAndSet(size, size + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void enqueue(OpenLogEntry entry) {
+		queue.offer(entry);
+		signalIfBatchReady();
+	}
+
+	private void signalIfBatchReady() {
+		if(queueSize.get() >= appender.getBatchSize()) {
+			wakeUp();
+		}
+	}
+
+	private void wakeUp() {
+		Thread thread = writerThread;
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void replaceOldest(OpenLogEntry entry) {
+		// Entries in the current batch are not available. So the oldest one might be the new entry.
+		if(queue.poll() != null) {
+			queue.offer(entry);
+		}
+
+		drop();
+	}
+
+	private void offerBlocking(OpenLogEntry entry) {
+		boolean reserved = false;
+
+		if(! isAsync()) {
+			// Nobody else will make space for us.
+			flush(false);
+			reserved = reserve();
+		} else {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(appender.getBlockTimeout());
+
+			wakeUp();
+
+			while(!(reserved = reserve()) && System.nanoTime() < deadline) {
+				LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			}
+		}
+
+		if(reserved) {
+			enqueue(entry);
+		} else {
+			drop();
+		}
+	}
+
+	private void drop() {
+		long count = droppedCount.incrementAndGet();
+		droppedMetric.increment();
+
+		if(count == 1 || count % DROP_WARNING_INTERVAL == 0) {
+			appender.addWarn("OpenLog queue is full. " + count + " entries have been dropped so far.");
+		}
+	}
+
+	/**
+	 * @return number of entries waiting, including the ones failed previously.
+	 */
+	public int getQueueSize() {
+		return queueSize.get();
+	}
+
+	/**
+	 * @return number of entries dropped because of the overflow policy or repeated save failures.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of entries saved to the target database.
+	 */
+	public long getSavedCount() {
+		return savedCount.get();
+	}
+
+	/**
+	 * @return number of bytes in the journal waiting to be saved.
+	 */
+	public long getJournalPendingBytes() {
+		return journal == null ? 0 : journal.getPendingBytes();
+	}
+
+	public String getTargetDbServer() {
+		return targetDbServer;
+	}
+
+	public String getTargetDbPath() {
+		return targetDbPath;
+	}
+
+	@Override
+	public void run() {
+		// Anything logged while saving entries should not come back to us.
+		ReentrancyGuard.guardThread();
+
+		warmUp();
+
+		long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(10, appender.getFlushInterval()));
+
+		while(running) {
+			if(queueSize.get() < appender.getBatchSize()) {
+				LockSupport.parkNanos(this, interval);
+			}
+
+			try {
+				flush();
+			} catch(Throwable t) {
+				appender.addError("Unexpected error in OpenLog writer.", t);
+			}
+		}
+	}
+
+	/**
+	 * Opens the session and the target database before the first entry arrives, so the server startup 
+	 * doesn't wait for them.
+	 */
+	private void warmUp() {
+		if(lease == null) return;
+
+		flushLock.lock();
+		try {
+			DominoRunner.runWithSession(lease, new SessionRoutine<Boolean>() {
+
+				@Override
+				public Boolean doRun(Session session) {
+					try {
+						return getTargetDb(session) != null;
+					} catch (NotesException e) {
+						appender.addWarn("Unable to open OpenLog database " + targetDbPath + " in advance: " + e.text);
+						closeTargetDb();
+						return false;
+					}
+				}
+
+				@Override
+				public Boolean fallback() {
+					return false;
+				}
+
+				@Override
+				public Boolean onException(Throwable t) {
+					closeTargetDb();
+					return false;
+				}
+			});
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Saves queued entries in batches until the queue is empty or the target refuses entries.
+	 *
+	 * @return true if the queue has been emptied.
+	 */
+	public boolean flush() {
+		return flush(true);
+	}
+
+	/**
+	 * Saves queued entries in batches until the queue is empty or the target refuses entries.
+	 * 
+	 * If another thread is already flushing, a caller not willing to wait returns immediately. That thread 
+	 * will pick up the new entries anyway. This also prevents deadlocks when a session routine running on 
+	 * another thread (e.g. the session lease) logs while we are flushing.
+	 *
+	 * @return true if the queue has been emptied.
+	 */
+	public boolean flush(boolean wait) {
+		if(wait) {
+			flushLock.lock();
+		} else if(! flushLock.tryLock()) {
+			return false;
+		}
+
+		try {
+			while(fillBatch() > 0) {
+				int before = batch.size();
+
+				sendBatch();
+
+				if(journal != null) {
+					journal.checkpoint(batch, queue);
+				}
+
+				if(batch.size() == before) {
+					// Nothing saved. We will try again later.
+					return false;
+				}
+			}
+
+			return batch.isEmpty();
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private int fillBatch() {
+		int batchSize = appender.getBatchSize();
+		OpenLogEntry entry;
+
+		while(batch.size() < batchSize && (entry = queue.poll()) != null) {
+			batch.add(entry);
+		}
+
+		// Memory queue is empty. Continue with the backlog in the journal.
+		if(batch.size() < batchSize && journal != null && journal.hasBacklog()) {
+			queueSize.addAndGet(journal.replay(batch, batchSize - batch.size()));
+		}
+
+		return batch.size();
+	}
+
+	private void sendBatch() {
+		SessionRoutine<Boolean> routine = new SessionRoutine<Boolean>() {
+
+			@Override
+			public Boolean doRun(Session session) {
+				sendBatch(session);
+				return null;
+			}
+
+			@Override
+			public Boolean fallback() {
+				appender.addWarn("We can't have a session yet. Next time...");
+				return false;
+			}
+
+			@Override
+			public Boolean onException(Throwable t) {
+				appender.addError("Unable to write to OpenLog.", t);
+				return false;
+			}
+		};
+
+		SessionLease currentLease = lease;
+
+		if(currentLease != null) {
+			DominoRunner.runWithSession(currentLease, routine);
+		} else {
+			DominoRunner.runWithSession(isAsync(), routine);
+		}
+	}
+
+	protected void sendBatch(Session session) {
+		long started = System.nanoTime();
+
+		try {
+			Database targetDb = getTargetDb(session);
+
+			if(targetDb!=null) {
+				SessionIdentity identity = appender.getIdentityCache().get(session);
+
+				if(appender.isBulkImport() && batch.size() > 1) {
+					importBatch(session, targetDb, identity);
+				}
+
+				// Anything not imported is saved one by one.
+				for (Iterator<OpenLogEntry> iterator = batch.iterator(); iterator.hasNext();) {
+					OpenLogEntry item = iterator.next();
+					boolean saved;
+
+					try {
+						saved = item.save(targetDb, identity);
+					} catch(LoggingException e) {
+						if(item.addFailedSave() < MAX_SAVE_ATTEMPTS) throw e;
+
+						deadLetter(iterator, item, e);
+						continue;
+					}
+
+					if(saved) {
+						iterator.remove();
+						queueSize.decrementAndGet();
+						savedCount.incrementAndGet();
+						savedMetric.increment();
+					} else if(item.addFailedSave() >= MAX_SAVE_ATTEMPTS) {
+						deadLetter(iterator, item, null);
+					}
+				}
+			}
+
+		} catch (NotesException e) {
+			appender.addError("Notes Error processing OpenLogEntry", e);
+			closeTargetDb();
+		} catch (LoggingException e) {
+			appender.addError("Error processing OpenLogEntry", e);
+			closeTargetDb();
+		} finally {
+			if(lease == null) {
+				// Not cached, the session belongs to the caller.
+				closeTargetDb();
+			}
+			saveLatency.record(System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * An entry failing again and again would block the entries behind it and the journal checkpoint. It is 
+	 * reported and dropped.
+	 */
+	private void deadLetter(Iterator<OpenLogEntry> iterator, OpenLogEntry item, Throwable t) {
+		iterator.remove();
+		queueSize.decrementAndGet();
+		droppedCount.incrementAndGet();
+		droppedMetric.increment();
+
+		String message = item.getMessage();
+		if(message != null && message.length() > 200) {
+			message = message.substring(0, 200) + "...";
+		}
+
+		appender.addError("OpenLog entry dropped after " + MAX_SAVE_ATTEMPTS + " failed saves: " + message, t);
+	}
+
+	/**
+	 * Imports the batch as a single DXL stream. Imported entries are removed from the batch. If the import stops
+	 * in the middle, the batch stays as it is and is saved one by one.
+	 */
+	private void importBatch(Session session, Database targetDb, SessionIdentity identity) {
+		OpenLogDxlBuilder dxl = new OpenLogDxlBuilder();
+
+		for(OpenLogEntry item : batch) {
+			item.appendDxl(dxl, identity);
+		}
+
+		int imported = importDxl(appender, session, targetDb, dxl, batch.size());
+
+		if(imported == batch.size()) {
+			batch.clear();
+			queueSize.addAndGet(-imported);
+			savedCount.addAndGet(imported);
+			savedMetric.add(imported);
+		}
+	}
+
+	/**
+	 * Imports all documents or none. The importer doesn't tell which documents have been imported when it stops 
+	 * in the middle, so they are removed again.
+	 * 
+	 * @param expected number of documents in the DXL stream.
+	 * @return number of documents imported, either expected or zero.
+	 */
+	static int importDxl(OpenLogAppender appender, Session session, Database targetDb, OpenLogDxlBuilder dxl, int expected) {
+		DxlImporter importer = null;
+		int imported = 0;
+
+		try {
+			importer = session.createDxlImporter();
+			importer.setDocumentImportOption(DxlImporter.DXLIMPORTOPTION_CREATE);
+			importer.setReplaceDbProperties(false);
+			importer.setExitOnFirstFatalError(true);
+
+			importer.importDxl(dxl.toString(), targetDb);
+		} catch (NotesException e) {
+			appender.addWarn("DXL import of OpenLog entries failed. Entries will be saved one by one. " + getImporterLog(importer), e);
+		} finally {
+			imported = getImportedCount(importer);
+
+			if(imported > 0 && imported != expected) {
+				appender.addWarn("DXL import of OpenLog entries stopped after " + imported + " of " + expected + " documents. Entries will be saved one by one.");
+				removeImported(appender, importer, targetDb);
+				imported = 0;
+			}
+
+			Utils.recycleObject(importer);
+		}
+
+		return imported;
+	}
+
+	private static void removeImported(OpenLogAppender appender, DxlImporter importer, Database targetDb) {
+		try {
+			String noteId = importer.getFirstImportedNoteID();
+
+			while(StringUtils.isNotEmpty(noteId)) {
+				Document doc = targetDb.getDocumentByID(noteId);
+
+				if(doc != null) {
+					doc.remove(true);
+					Utils.recycleObject(doc);
+				}
+
+				noteId = importer.getNextImportedNoteID(noteId);
+			}
+		} catch (NotesException e) {
+			appender.addError("Unable to remove partially imported OpenLog documents. Some entries may be logged twice.", e);
+		}
+	}
+
+	private static int getImportedCount(DxlImporter importer) {
+		try {
+			return importer == null ? 0 : importer.getImportedNoteCount();
+		} catch (NotesException e) {
+			return 0;
+		}
+	}
+
+	private static String getImporterLog(DxlImporter importer) {
+		try {
+			return importer == null ? "" : importer.getLog();
+		} catch (NotesException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * With the lease of the writer, the target database stays open across batches as long as the same session is 
+	 * used. It will be opened again after a failure, with a new session, or after the idle timeout. Otherwise the 
+	 * session differs on almost every call, so the database is closed after each batch.
+	 */
+	private Database getTargetDb(Session session) throws NotesException {
+		long now = System.currentTimeMillis();
+
+		if(logDb != null && (session != logDbSession || now - logDbLastUsed > appender.getDbIdleTimeout())) {
+			closeTargetDb();
+		}
+
+		if(logDb == null) {
+			logDb = session.getDatabase(targetDbServer, targetDbPath, false);
+			logDbSession = session;
+		}
+
+		logDbLastUsed = now;
+		return logDb;
+	}
+
+	/**
+	 * The cached database belongs to the session of the lease thread, so it's recycled there.
+	 */
+	private void releaseTargetDb() {
+		flushLock.lock();
+		try {
+			if(logDb == null) return;
+
+			if(lease == null) {
+				closeTargetDb();
+				return;
+			}
+
+			DominoRunner.runWithSession(lease, new SessionRoutine<Boolean>() {
+
+				@Override
+				public Boolean doRun(Session session) {
+					closeTargetDb();
+					return true;
+				}
+
+				@Override
+				public Boolean fallback() {
+					// The lease thread is gone and its session recycled the handle.
+					logDb = null;
+					logDbSession = null;
+					return false;
+				}
+
+				@Override
+				public Boolean onException(Throwable t) {
+					return fallback();
+				}
+			});
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void closeTargetDb() {
+		// The handle might be already recycled with its session.
+		Utils.recycleObject(logDb);
+		logDb = null;
+		logDbSession = null;
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import org.openntf.base.logback.utils.StringUtils;
+
+/**
+ * Defines what happens when the OpenLog queue reaches its capacity.
+ *
+ */
+public enum OverflowPolicy {
+
+	/** The oldest waiting entry is dropped in favour of the new one. */
+	DROP_OLDEST,
+
+	/** New entries below the overflow level are dropped. Others replace the oldest entry. */
+	DROP_BELOW_LEVEL,
+
+	/** The caller waits for space up to the block timeout. The new entry is dropped afterwards. */
+	BLOCK,
+
+	/** New entries are written into the journal file on the disk until the queue drains. */
+	SPILL;
+
+	/**
+	 * @return matching policy ignoring case, or the default value if no match.
+	 */
+	public static OverflowPolicy toPolicy(String value, OverflowPolicy defaultPolicy) {
+		if(StringUtils.isEmpty(value)) {
+			return defaultPolicy;
+		}
+
+		for(OverflowPolicy policy: values()) {
+			if(StringUtils.equalsIgnoreCase(policy.name(), value.trim())) {
+				return policy;
+			}
+		}
+
+		return defaultPolicy;
+	}
+}
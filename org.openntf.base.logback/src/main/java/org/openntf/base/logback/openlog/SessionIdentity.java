@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.util.Vector;
+
+import lotus.domino.Name;
+import lotus.domino.NotesException;
+import lotus.domino.Session;
+
+import org.openntf.base.logback.utils.Utils;
+
+/**
+ * Values written into every OpenLog document which don't change for a given user and server.
+ *
+ */
+public class SessionIdentity {
+
+	private final String userName;
+	private final String effectiveUserName;
+	private final String serverName;
+	private final Vector<String> userRoles;
+	private final Vector<String> clientVersion;
+
+	private final long created = System.currentTimeMillis();
+
+	private SessionIdentity(String userName, String effectiveUserName, String serverName, Vector<String> userRoles, Vector<String> clientVersion) {
+		this.userName = userName;
+		this.effectiveUserName = effectiveUserName;
+		this.serverName = serverName;
+		this.userRoles = userRoles;
+		this.clientVersion = clientVersion;
+	}
+
+	/**
+	 * Reads all values from the session. This is the expensive part.
+	 */
+	public static SessionIdentity create(Session session, String userName) throws NotesException {
+		return create(session, userName, session.getEffectiveUserName());
+	}
+
+	public static SessionIdentity create(Session session, String userName, String effectiveUserName) throws NotesException {
+		Name serverNameName = session.createName(session.getServerName());
+		String serverName = serverNameName.getCommon();
+		Utils.recycleObject(serverNameName);
+
+		return new SessionIdentity(userName, effectiveUserName, serverName, 
+				Utils.getUserRoles(session), Utils.getClientVersion(session));
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getEffectiveUserName() {
+		return effectiveUserName;
+	}
+
+	/**
+	 * @return common name of the server.
+	 */
+	public String getServerName() {
+		return serverName;
+	}
+
+	public Vector<String> getUserRoles() {
+		return userRoles;
+	}
+
+	public Vector<String> getClientVersion() {
+		return clientVersion;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+}
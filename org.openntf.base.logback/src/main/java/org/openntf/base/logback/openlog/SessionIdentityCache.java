@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.openlog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lotus.domino.NotesException;
+import lotus.domino.Session;
+
+/**
+ * Bounded LRU cache for {@link SessionIdentity} values, keyed by the session user, the effective user and the 
+ * server. A signer session and a session running as the web user share the user name, but not the roles.
+ * 
+ * Entries expire after a while, so changes in roles will be reflected eventually.
+ *
+ */
+public class SessionIdentityCache {
+
+	private static final int DEFAULT_MAX_SIZE = 64;
+	private static final long DEFAULT_EXPIRY = 10 * 60 * 1000L;
+
+	private final int maxSize;
+	private final long expiry;
+
+	private final Map<String, SessionIdentity> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public SessionIdentityCache() {
+		this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRY);
+	}
+
+	public SessionIdentityCache(final int maxSize, long expiry) {
+		this.maxSize = maxSize;
+		this.expiry = expiry;
+
+		this.cache = new LinkedHashMap<String, SessionIdentity>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SessionIdentity> eldest) {
+				return size() > SessionIdentityCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return identity for the session user, from the cache if possible.
+	 */
+	public SessionIdentity get(Session session) throws NotesException {
+		String userName = session.getUserName();
+		String effectiveUserName = session.getEffectiveUserName();
+		String key = userName + "|" + effectiveUserName + "|" + session.getServerName();
+
+		SessionIdentity identity;
+
+		synchronized(cache) {
+			identity = cache.get(key);
+		}
+
+		if(identity != null && System.currentTimeMillis() - identity.getCreated() < expiry) {
+			hits.incrementAndGet();
+			return identity;
+		}
+
+		misses.incrementAndGet();
+		identity = SessionIdentity.create(session, userName, effectiveUserName);
+
+		synchronized(cache) {
+			cache.put(key, identity);
+		}
+
+		return identity;
+	}
+
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
@@ -16,10 +16,22 @@
  */
 package org.openntf.base.logback.plugin;
 
+import java.util.List;
+
 import org.eclipse.core.runtime.Plugin;
+import org.eclipse.osgi.framework.console.CommandProvider;
 import org.openntf.base.logback.config.AutoConfig;
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.openntf.base.logback.metrics.Gauge;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.metrics.MetricsMBean;
+import org.openntf.base.logback.utils.DominoRunner;
+import org.openntf.base.logback.utils.ReentrancyGuard;
+import org.openntf.base.logback.utils.Scheduler;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.LoggerContext;
@@ -27,12 +39,8 @@ import ch.qos.logback.classic.LoggerContext;
 public class BasePlugin extends Plugin implements BundleActivator {
 
 	private static BundleContext context;
+	private ServiceRegistration commandRegistration;
 
-    // FUTURE Multiple Context support should be added here. 
-	//static {
-	//	System.getProperties().setProperty("logback.ContextSelector", DominoContextSelector.class.getCanonicalName());
-	//}
-	
 	public static BundleContext getContext() {
 		return context;
 	}
@@ -48,20 +56,85 @@ public class BasePlugin extends Plugin implements BundleActivator {
 		setContext(bundleContext);
 		super.start(bundleContext);
 		
+		// Selector has to be set before the logger factory is initialized.
+		if(LogSettings.getIntegerValue(LogSettings.SETTING_CONTEXT_SELECTOR, 0) == 1) {
+			DominoContextSelector.install();
+		}
+
 		AutoConfig.init();
-		
+
+		commandRegistration = bundleContext.registerService(CommandProvider.class.getName(), new XLogbackCommands(), null);
+
+		registerMetrics();
+	}
+
+	private void registerMetrics() {
+		Metrics.gauge("reentrancy.dropped", new Gauge() {
+			public long getValue() {
+				return ReentrancyGuard.getDroppedCount();
+			}
+		});
+
+		if(LogSettings.getIntegerValue(LogSettings.SETTING_JMX, 1) == 1) {
+			try {
+				MetricsMBean.register();
+			} catch(Throwable t) {
+				System.out.println("Unable to register XLogback metrics to JMX: "+t.getMessage());
+			}
+		}
 	}
 
 	public void stop(BundleContext bundleContext) throws Exception {
+		if(commandRegistration != null) {
+			commandRegistration.unregister();
+			commandRegistration = null;
+		}
+
+		try {
+			MetricsMBean.unregister();
+		} catch(Throwable t) {
+			System.out.println("Unable to unregister XLogback metrics from JMX: "+t.getMessage());
+		}
+
 		setContext(null);
 		super.stop(bundleContext);
+
+		AutoConfig.shutdown();
+		
+		stopLoggerContexts();
+
+		// Appenders might need the leased session while stopping.
+		DominoRunner.shutdown();
+		Scheduler.shutdown();
 		
+	}
+
+	/**
+	 * Stops the NSF contexts, then the default one. Their appenders use the scheduler and the session leases, 
+	 * which are shut down afterwards.
+	 */
+	private static void stopLoggerContexts() {
+		DominoContextSelector selector = DominoContextSelector.getInstance();
+
+		if(selector == null) {
+			stopLoggerContext((LoggerContext) LoggerFactory.getILoggerFactory());
+			return;
+		}
+
+		List<String> names = selector.getContextNames();
+
+		for(int i = names.size() - 1; i >= 0; i--) {
+			stopLoggerContext(selector.getLoggerContext(names.get(i)));
+		}
+	}
+
+	private static void stopLoggerContext(LoggerContext lc) {
+		if(lc == null) return;
+
 		try {
-			LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
 			lc.stop();
 		} catch(Throwable t) {
-			System.out.println("Unable to stop logger context: "+t.getMessage());
+			System.out.println("Unable to stop logger context "+lc.getName()+": "+t.getMessage());
 		}
-		
 	}
 }
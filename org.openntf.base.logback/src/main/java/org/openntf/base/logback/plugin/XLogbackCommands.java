@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.plugin;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.osgi.framework.console.CommandInterpreter;
+import org.eclipse.osgi.framework.console.CommandProvider;
+import org.openntf.base.logback.config.AutoConfig;
+import org.openntf.base.logback.config.LevelOverrides;
+import org.openntf.base.logback.config.LevelOverrides.LevelOverride;
+import org.openntf.base.logback.config.StartupTimings;
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.openntf.base.logback.filter.RateLimitFilter;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.openlog.OpenLogAppender;
+import org.openntf.base.logback.openlog.OpenLogBenchmark;
+import org.openntf.base.logback.openlog.OpenLogWriter;
+import org.openntf.base.logback.utils.DominoRunner;
+import org.openntf.base.logback.utils.ReentrancyGuard;
+import org.openntf.base.logback.utils.StringUtils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.filter.Filter;
+
+/**
+ * OSGi console commands for runtime diagnostics. e.g. <code>tell http osgi xlb level com.acme DEBUG 5m</code>
+ *
+ */
+public class XLogbackCommands implements CommandProvider {
+
+	private static final int DEFAULT_BENCHMARK_COUNT = 100;
+
+	public String getHelp() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("---XLogback commands---\n");
+		sb.append("\txlb level <logger> <level> [ttl] - set logger level, reverted after ttl (e.g. 30s, 5m, 1h)\n");
+		sb.append("\txlb level <logger> reset - restore the original logger level\n");
+		sb.append("\txlb levels - list runtime level changes\n");
+		sb.append("\txlb stats - print counters\n");
+		sb.append("\txlb metrics - print the metrics published to JMX\n");
+		sb.append("\txlb flush - save queued OpenLog entries\n");
+		sb.append("\txlb appenders - list appenders and their filters\n");
+		sb.append("\txlb contexts - list logger contexts\n");
+		sb.append("\txlb benchmark [count] - compare document and DXL saves on the OpenLog database (max. 1000, deleted afterwards)\n");
+
+		return sb.toString();
+	}
+
+	public void _xlb(CommandInterpreter ci) {
+		String command = ci.nextArgument();
+
+		try {
+			if("level".equalsIgnoreCase(command)) {
+				level(ci);
+			} else if("levels".equalsIgnoreCase(command)) {
+				levels(ci);
+			} else if("stats".equalsIgnoreCase(command)) {
+				stats(ci);
+			} else if("metrics".equalsIgnoreCase(command)) {
+				metrics(ci);
+			} else if("flush".equalsIgnoreCase(command)) {
+				flush(ci);
+			} else if("appenders".equalsIgnoreCase(command)) {
+				appenders(ci);
+			} else if("contexts".equalsIgnoreCase(command)) {
+				contexts(ci);
+			} else if("benchmark".equalsIgnoreCase(command)) {
+				benchmark(ci);
+			} else {
+				ci.print(getHelp());
+			}
+		} catch(IllegalArgumentException e) {
+			ci.println(e.getMessage());
+		}
+	}
+
+	private void level(CommandInterpreter ci) {
+		String loggerName = ci.nextArgument();
+		String levelName = ci.nextArgument();
+		String ttlValue = ci.nextArgument();
+
+		if(StringUtils.isEmpty(loggerName) || StringUtils.isEmpty(levelName)) {
+			throw new IllegalArgumentException("Usage: xlb level <logger> <level|reset> [ttl]");
+		}
+
+		LoggerContext lc = getLoggerContext();
+
+		if("reset".equalsIgnoreCase(levelName)) {
+			if(LevelOverrides.reset(lc, loggerName)) {
+				ci.println("Level of " + loggerName + " restored to " + lc.getLogger(loggerName).getLevel() + ".");
+			} else {
+				ci.println("Level of " + loggerName + " has not been changed.");
+			}
+			return;
+		}
+
+		Level level = Level.toLevel(levelName, null);
+		if(level == null) {
+			throw new IllegalArgumentException("Unknown level: " + levelName);
+		}
+
+		long ttl = parseDuration(ttlValue);
+		LevelOverride override = LevelOverrides.set(lc, loggerName, level, ttl);
+
+		ci.println("Level of " + override.getLoggerName() + " set to " + level + describeExpiry(override) + ".");
+	}
+
+	private void levels(CommandInterpreter ci) {
+		Map<String, LevelOverride> overrides = LevelOverrides.getActive();
+
+		if(overrides.isEmpty()) {
+			ci.println("No runtime level changes.");
+			return;
+		}
+
+		for(LevelOverride override : overrides.values()) {
+			ci.println(override.getLoggerName() + ": " + override.getLevel() + " (was " + override.getOriginalLevel() + ")" + describeExpiry(override));
+		}
+	}
+
+	private void stats(CommandInterpreter ci) {
+		StartupTimings timings = AutoConfig.getStartupTimings();
+
+		if(timings != null) {
+			ci.println("Startup: " + timings);
+		}
+
+		ci.println("Reentrant events dropped: " + ReentrancyGuard.getDroppedCount());
+		ci.println("Session paths: " + DominoRunner.getStatistics());
+
+		for(Appender<ILoggingEvent> appender : getAppenders().keySet()) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(appender.getName()).append(": ");
+
+			if(appender instanceof OpenLogAppender) {
+				OpenLogAppender openLog = (OpenLogAppender) appender;
+
+				sb.append("saved=").append(openLog.getSavedCount());
+				sb.append(", queued=").append(openLog.getQueueSize());
+				sb.append(", dropped=").append(openLog.getDroppedCount());
+				sb.append(", journal=").append(openLog.getJournalPendingBytes()).append(" bytes");
+			} else {
+				sb.append(appender.isStarted() ? "started" : "stopped");
+			}
+
+			for(Filter<ILoggingEvent> filter : appender.getCopyOfAttachedFiltersList()) {
+				if(filter instanceof RateLimitFilter) {
+					sb.append(", rate limited=").append(((RateLimitFilter) filter).getSuppressedCount());
+				}
+			}
+
+			ci.println(sb);
+
+			if(appender instanceof OpenLogAppender && ((OpenLogAppender) appender).getWriters().size() > 1) {
+				for(OpenLogWriter writer : ((OpenLogAppender) appender).getWriters()) {
+					ci.println("\t" + describeTarget(writer) + ": saved=" + writer.getSavedCount() + ", queued=" + writer.getQueueSize() + ", dropped=" + writer.getDroppedCount());
+				}
+			}
+		}
+	}
+
+	private void metrics(CommandInterpreter ci) {
+		for(Map.Entry<String, Long> entry : Metrics.getValues().entrySet()) {
+			ci.println(entry.getKey() + " = " + entry.getValue());
+		}
+	}
+
+	private void flush(CommandInterpreter ci) {
+		boolean found = false;
+
+		for(Appender<ILoggingEvent> appender : getAppenders().keySet()) {
+			if(appender instanceof OpenLogAppender) {
+				found = true;
+
+				for(OpenLogWriter writer : ((OpenLogAppender) appender).getWriters()) {
+					boolean flushed = writer.flush();
+					ci.println(appender.getName() + " " + describeTarget(writer) + ": " + (flushed ? "flushed." : writer.getQueueSize() + " entries still waiting."));
+				}
+			}
+		}
+
+		if(! found) {
+			ci.println("No OpenLog appender found.");
+		}
+	}
+
+	private void appenders(CommandInterpreter ci) {
+		for(Map.Entry<Appender<ILoggingEvent>, String> entry : getAppenders().entrySet()) {
+			Appender<ILoggingEvent> appender = entry.getKey();
+
+			ci.println(appender.getName() + " (" + appender.getClass().getName() + ") " 
+					+ (appender.isStarted() ? "started" : "stopped") + ", attached to " + entry.getValue());
+
+			for(Filter<ILoggingEvent> filter : appender.getCopyOfAttachedFiltersList()) {
+				ci.println("\tfilter " + filter.getClass().getName() + (filter.isStarted() ? "" : " (stopped)"));
+			}
+		}
+	}
+
+	private void contexts(CommandInterpreter ci) {
+		DominoContextSelector selector = DominoContextSelector.getInstance();
+
+		if(selector == null) {
+			ci.println("Single logger context: " + getLoggerContext().getName());
+			return;
+		}
+
+		for(String name : selector.getContextNames()) {
+			LoggerContext context = selector.getLoggerContext(name);
+			ci.println(name + ": " + (context == null ? "removed" : context.getLoggerList().size() + " loggers"));
+		}
+	}
+
+	private void benchmark(CommandInterpreter ci) {
+		String countValue = ci.nextArgument();
+		int count = DEFAULT_BENCHMARK_COUNT;
+
+		if(! StringUtils.isEmpty(countValue)) {
+			try {
+				count = Integer.parseInt(countValue);
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid count: " + countValue);
+			}
+		}
+
+		for(Appender<ILoggingEvent> appender : getAppenders().keySet()) {
+			if(appender instanceof OpenLogAppender) {
+				ci.println(new OpenLogBenchmark((OpenLogAppender) appender, count).run());
+				return;
+			}
+		}
+
+		ci.println("No OpenLog appender found.");
+	}
+
+	/**
+	 * @return appenders of all loggers with the names of the loggers they are attached to.
+	 */
+	private Map<Appender<ILoggingEvent>, String> getAppenders() {
+		Map<Appender<ILoggingEvent>, String> appenders = new IdentityHashMap<Appender<ILoggingEvent>, String>();
+
+		for(Logger logger : getLoggerContext().getLoggerList()) {
+			for(Iterator<Appender<ILoggingEvent>> iterator = logger.iteratorForAppenders(); iterator.hasNext();) {
+				Appender<ILoggingEvent> appender = iterator.next();
+				String attached = appenders.get(appender);
+
+				appenders.put(appender, attached == null ? logger.getName() : attached + ", " + logger.getName());
+			}
+		}
+
+		return appenders;
+	}
+
+	private LoggerContext getLoggerContext() {
+		return (LoggerContext) DominoContextSelector.getDefaultLoggerFactory();
+	}
+
+	private String describeTarget(OpenLogWriter writer) {
+		return (StringUtils.isEmpty(writer.getTargetDbServer()) ? "" : writer.getTargetDbServer() + "!!") + writer.getTargetDbPath();
+	}
+
+	private String describeExpiry(LevelOverride override) {
+		if(override.getExpires() == 0) {
+			return " until reset";
+		}
+
+		return " until " + new SimpleDateFormat("HH:mm:ss").format(new Date(override.getExpires()));
+	}
+
+	/**
+	 * @return milliseconds for values like 30s, 5m or 1h. Plain numbers are seconds. Empty means no expiry.
+	 * @throws IllegalArgumentException if the value is not a positive duration.
+	 */
+	static long parseDuration(String value) {
+		if(StringUtils.isEmpty(value)) return 0;
+
+		String number = value.trim().toLowerCase();
+		long unit = 1000L;
+
+		if(number.endsWith("s")) {
+			number = number.substring(0, number.length() - 1);
+		} else if(number.endsWith("m")) {
+			unit = 60000L;
+			number = number.substring(0, number.length() - 1);
+		} else if(number.endsWith("h")) {
+			unit = 3600000L;
+			number = number.substring(0, number.length() - 1);
+		}
+
+		long duration;
+		try {
+			duration = Long.parseLong(number) * unit;
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid duration: " + value);
+		}
+
+		if(duration <= 0) {
+			throw new IllegalArgumentException("Duration should be positive: " + value);
+		}
+
+		return duration;
+	}
+
+}
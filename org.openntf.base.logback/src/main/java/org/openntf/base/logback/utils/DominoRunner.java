@@ -19,14 +19,22 @@ package org.openntf.base.logback.utils;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import lotus.domino.NotesException;
 import lotus.domino.NotesFactory;
 import lotus.domino.NotesThread;
 import lotus.domino.Session;
 
+import org.openntf.base.logback.config.LogSettings;
+import org.openntf.base.logback.core.DominoContextSelector;
+import org.openntf.base.logback.metrics.LatencyHistogram;
+import org.openntf.base.logback.metrics.Metrics;
+import org.openntf.base.logback.metrics.StripedCounter;
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Original implementation taken from XSnippets site. 
@@ -34,13 +42,40 @@ import org.slf4j.LoggerFactory;
  * Author: Serdar Basegmez
  * Link: http://openntf.org/s/dominorunner-provides-a-temporary-notes-session-for-your-java-code...
  * 
+ * Outside of the XPages/servlet context, sessions are provided by a {@link SessionLease} instead of creating a
+ * new NotesThread session for each call. Resolution times for each path are recorded. Fallbacks and 
+ * resolution times are also published as the 'runner.fallback' and 'runner.session' metrics.
+ * 
  * @author sbasegmez
  *
  */
 
 public class DominoRunner {
 
-	private static Logger logger = LoggerFactory.getLogger(DominoRunner.class);
+	private static Logger logger = DominoContextSelector.getDefaultLogger(DominoRunner.class);
+
+	private static final String SETTING_SESSION_LEASE = "SessionLease";
+	private static final String SETTING_SESSION_LEASE_IDLE = "SessionLeaseIdle";
+
+	public enum SessionPath {
+		NOTES_CONTEXT, CONTEXT_INFO, NOTES_THREAD, LEASE, FALLBACK
+	}
+
+	private static final int PATH_COUNT = SessionPath.values().length;
+	private static final AtomicLongArray pathAttempts = new AtomicLongArray(PATH_COUNT);
+	private static final AtomicLongArray pathHits = new AtomicLongArray(PATH_COUNT);
+	private static final AtomicLongArray pathNanos = new AtomicLongArray(PATH_COUNT);
+
+	private static final StripedCounter fallbackMetric = Metrics.counter("runner.fallback");
+	private static final LatencyHistogram sessionLatency = Metrics.histogram("runner.session");
+
+	// Reflective lookups per context classloader. Empty array means the class is not available.
+	private static final Method[] NOT_AVAILABLE = new Method[0];
+	private static final Map<ClassLoader, Method[]> notesContextMethods = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Method[]>());
+	private static final Map<ClassLoader, Method[]> contextInfoMethods = Collections.synchronizedMap(new WeakHashMap<ClassLoader, Method[]>());
+
+	private static SessionLease lease;
+	private static boolean leaseShutdown = false;
 		
 	public interface SessionRoutine<T> {
 		public T doRun(Session session);
@@ -48,18 +83,20 @@ public class DominoRunner {
 		public T onException(Throwable t);
 	}
 	
-	public static <T> T runWithSession(boolean trusted, SessionRoutine<T> routine) {
+	public static <T> T runWithSession(boolean trusted, final SessionRoutine<T> routine) {
 		// We need a session. So first, we'll try to get the session from the NotesContext.
 		// If the caller eventually binded to an XPages session, we'll be able to grab a session.
 		// The only problem is that; session coming from NotesContext will be the SignerSession. 
 		// Hope there is only one almighty developer :)
 
 		Session session=null;
+		long started = System.nanoTime();
 		
 		session = findNotesContextSession(trusted);
+		recordPath(SessionPath.NOTES_CONTEXT, started, null != session);
 		
 		if(null != session) {
-			logger.trace("Got a NotesContext session!");
+			trace("Got a NotesContext session!");
 			try {
 				return routine.doRun(session);
 			} catch(Throwable t) {
@@ -67,18 +104,20 @@ public class DominoRunner {
 			}
 		}
 
-		logger.trace("Failed to have a NotesContext session...");
+		trace("Failed to have a NotesContext session...");
 		
 		// So we couldn't grab the session... It means that we are out of XPages. 
 		// If this is a servlet, we still have a chance for getting a User Session.
 		
 		if(!trusted) {
-			logger.trace("User session requested. We'll try ContextInfo.");
+			trace("User session requested. We'll try ContextInfo.");
 			
+			started = System.nanoTime();
 			session = findContextInfoSession();
+			recordPath(SessionPath.CONTEXT_INFO, started, null != session);
 			
 			if(null != session) {
-				logger.trace("Got a NotesContext session!");
+				trace("Got a NotesContext session!");
 				try {
 					return routine.doRun(session);
 				} catch(Throwable t) {
@@ -86,39 +125,259 @@ public class DominoRunner {
 				}
 			}
 
-			logger.trace("Failed to have a ContextInfo session...");
+			trace("Failed to have a ContextInfo session...");
 		}
 		
 		// We might be on an OSGi-level thread, DOTS or a servlet.
 		// Either way, we hope we are allowed to have NotesThread session.
+		// The lease keeps that session alive, so we don't pay for it on each call.
+		
+		SessionLease currentLease = getLease();
+		
+		if(null != currentLease) {
+			trace("Using the leased NotesThread session.");
+			return runWithLease(currentLease, routine);
+		}
 		
 		try {
-			logger.trace("Trying NotesThread option.");
+			trace("Trying NotesThread option.");
+			started = System.nanoTime();
 			NotesThread.sinitThread();
 			session = NotesFactory.createTrustedSession();
+			recordPath(SessionPath.NOTES_THREAD, started, null != session);
 			
 			if(null != session) {
-				logger.trace("NotesThread worked. We have a session now...");
+				trace("NotesThread worked. We have a session now...");
 				try {
 					return routine.doRun(session);
 				} catch(Throwable t) {
 					return routine.onException(t);
 				}
 			}
-			logger.trace("Received a NULL session from NotesThread.");
+			trace("Received a NULL session from NotesThread.");
 		} catch (NotesException e) {
 			// Ooops. We can't have a Session. That means trouble.
-			logger.trace("Unable to receive a session from NotesThread: {}", e.text);
+			recordPath(SessionPath.NOTES_THREAD, started, false);
+			trace("Unable to receive a session from NotesThread: {}", e.text);
 		} finally {
 			NotesThread.stermThread();
 			Utils.recycleObject(session); 
 		}
 
-		logger.trace("No other option for now. We can't have a Session, we can't load configuration!");
+		return fallback(routine);
+	}
+
+	/**
+	 * Runs the routine with a session of the given lease, e.g. one owned by a background writer. Without a
+	 * lease, it's the same as {@link #runWithSession(boolean, SessionRoutine)} with a trusted session.
+	 */
+	public static <T> T runWithSession(SessionLease ownLease, final SessionRoutine<T> routine) {
+		if(null == ownLease) {
+			return runWithSession(true, routine);
+		}
+
+		return runWithLease(ownLease, routine);
+	}
+
+	private static <T> T runWithLease(SessionLease currentLease, final SessionRoutine<T> routine) {
+		return currentLease.run(new SessionRoutine<T>() {
+			@Override
+			public T doRun(Session session) {
+				return routine.doRun(session);
+			}
+
+			@Override
+			public T fallback() {
+				return DominoRunner.fallback(routine);
+			}
+
+			@Override
+			public T onException(Throwable t) {
+				return routine.onException(t);
+			}
+		});
+	}
+
+	/**
+	 * Appenders call us while processing an event. Tracing from there would log back into the same appenders.
+	 */
+	private static void trace(String msg) {
+		if(logger.isTraceEnabled() && ! ReentrancyGuard.isActive()) {
+			logger.trace(msg);
+		}
+	}
+
+	private static void trace(String format, Object arg) {
+		if(logger.isTraceEnabled() && ! ReentrancyGuard.isActive()) {
+			logger.trace(format, arg);
+		}
+	}
+
+	private static <T> T fallback(SessionRoutine<T> routine) {
+		trace("No other option for now. We can't have a Session, we can't load configuration!");
+		pathAttempts.incrementAndGet(SessionPath.FALLBACK.ordinal());
+		fallbackMetric.increment();
 
 		return routine.fallback();
 	}
 
+	/**
+	 * Session lease is enabled by default. It can be disabled by 'Xlb_SessionLease=0'.
+	 * 
+	 * @return null if the lease is disabled.
+	 */
+	private static synchronized SessionLease getLease() {
+		if(lease == null && !leaseShutdown) {
+			if(LogSettings.getIntegerValue(SETTING_SESSION_LEASE, 1) != 1) {
+				leaseShutdown = true;
+			} else {
+				lease = new SessionLease(LogSettings.getIntegerValue(SETTING_SESSION_LEASE_IDLE, 60000));
+			}
+		}
+		return lease;
+	}
+
+	/**
+	 * Creates a separate lease for a component that needs its own session thread, so it doesn't queue behind 
+	 * others on the shared one. The owner has to stop it.
+	 * 
+	 * @return null if the lease is disabled.
+	 */
+	public static SessionLease createLease(String threadName) {
+		if(LogSettings.getIntegerValue(SETTING_SESSION_LEASE, 1) != 1) {
+			return null;
+		}
+		return new SessionLease(threadName, LogSettings.getIntegerValue(SETTING_SESSION_LEASE_IDLE, 60000));
+	}
+
+	/**
+	 * Releases the leased session. Should be called when the plugin stops.
+	 */
+	public static synchronized void shutdown() {
+		leaseShutdown = true;
+
+		if(lease != null) {
+			lease.stop();
+			lease = null;
+		}
+	}
+
+	static void recordPath(SessionPath path, long startedNanos, boolean hit) {
+		int index = path.ordinal();
+		long nanos = System.nanoTime() - startedNanos;
+
+		pathAttempts.incrementAndGet(index);
+		pathNanos.addAndGet(index, nanos);
+		sessionLatency.record(nanos);
+
+		if(hit) {
+			pathHits.incrementAndGet(index);
+		}
+	}
+
+	/**
+	 * @return number of times the path has been tried.
+	 */
+	public static long getPathAttempts(SessionPath path) {
+		return pathAttempts.get(path.ordinal());
+	}
+
+	/**
+	 * @return number of times the path provided a session.
+	 */
+	public static long getPathHits(SessionPath path) {
+		return pathHits.get(path.ordinal());
+	}
+
+	/**
+	 * @return total time spent for resolving a session through the path, in nanoseconds.
+	 */
+	public static long getPathNanos(SessionPath path) {
+		return pathNanos.get(path.ordinal());
+	}
+
+	/**
+	 * @return a single line summary of session resolution statistics.
+	 */
+	public static String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+
+		for(SessionPath path: SessionPath.values()) {
+			long attempts = getPathAttempts(path);
+
+			if(sb.length() > 0) sb.append(", ");
+			sb.append(path.name()).append("=").append(getPathHits(path)).append("/").append(attempts);
+
+			if(attempts > 0 && path != SessionPath.FALLBACK) {
+				sb.append(" (avg ").append(getPathNanos(path) / attempts / 1000).append("us)");
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private static Method[] getNotesContextMethods(ClassLoader cl) {
+		if(cl == null) return NOT_AVAILABLE;
+		
+		Method[] methods = notesContextMethods.get(cl);
+		
+		if(methods == null) {
+			try {
+				Class<?> clazz = cl.loadClass("com.ibm.domino.xsp.module.nsf.NotesContext");
+				methods = new Method[] {
+						clazz.getDeclaredMethod("getCurrentUnchecked", new Class[0]),
+						clazz.getDeclaredMethod("getSessionAsSignerFullAdmin", new Class[0]),
+						clazz.getDeclaredMethod("getCurrentSession", new Class[0])
+				};
+			} catch (ClassNotFoundException e) {
+				trace("NotesContext class not found", e);
+				// We couldn't find the class.
+				methods = NOT_AVAILABLE;
+			} catch (NoClassDefFoundError e) {
+				trace("NotesContext throwed an exception", e);
+				// We couldn't access the class.
+				methods = NOT_AVAILABLE;
+			} catch (Exception e) {
+				trace("Unhandled error looking for the NotesContext class", e);
+				methods = NOT_AVAILABLE;
+			}
+			
+			notesContextMethods.put(cl, methods);
+		}
+		
+		return methods;
+	}
+
+	private static Method[] getContextInfoMethods(ClassLoader cl) {
+		if(cl == null) return NOT_AVAILABLE;
+		
+		Method[] methods = contextInfoMethods.get(cl);
+		
+		if(methods == null) {
+			try {
+				Class<?> clazz = cl.loadClass("com.ibm.domino.osgi.core.context.ContextInfo");
+				methods = new Method[] {
+						clazz.getDeclaredMethod("getUserSession", new Class[0])
+				};
+			} catch (ClassNotFoundException e) {
+				trace("ContextInfo class not found");
+				// We couldn't find the class.
+				methods = NOT_AVAILABLE;
+			} catch (NoClassDefFoundError e) {
+				trace("ContextInfo throwed an exception");
+				// We couldn't access the class.
+				methods = NOT_AVAILABLE;
+			} catch (Exception e) {
+				trace("Unhandled error looking for the ContextInfo class", e);
+				methods = NOT_AVAILABLE;
+			}
+			
+			contextInfoMethods.put(cl, methods);
+		}
+		
+		return methods;
+	}
+
 	public static Session findNotesContextSession(final boolean signer) {
 		return AccessController.doPrivileged(new PrivilegedAction<Session>() {
 			@Override
@@ -126,35 +385,23 @@ public class DominoRunner {
 				try {
 					// This classloader is not available in Wink. 
 					// Wink servlets replaces classloaders during runtime. 
-					ClassLoader cl = Thread.currentThread().getContextClassLoader();
-					Class<?> clazz = cl.loadClass("com.ibm.domino.xsp.module.nsf.NotesContext");
-					Method m1 = clazz.getDeclaredMethod("getCurrentUnchecked", new Class[0]);
-					Method m2;
-					if(signer) {
-						m2 = clazz.getDeclaredMethod("getSessionAsSignerFullAdmin", new Class[0]);
-					} else {
-						m2 = clazz.getDeclaredMethod("getCurrentSession", new Class[0]);
+					Method[] methods = getNotesContextMethods(Thread.currentThread().getContextClassLoader());
+					
+					if(methods == NOT_AVAILABLE) {
+						return null;
 					}
 					
-					Object nc = m1.invoke(null, new Object[0]);
+					Object nc = methods[0].invoke(null, new Object[0]);
 					
 					if(nc==null) {
-						logger.trace("NotesContext is null");
+						trace("NotesContext is null");
 						// NotesContext is unavailable. We are out of XSP context.
 						return null;
 					} else {
-						return (Session) m2.invoke(nc, new Object[0]);
+						return (Session) (signer ? methods[1] : methods[2]).invoke(nc, new Object[0]);
 					}
-				} catch (ClassNotFoundException e) {
-					logger.trace("NotesContext class not found", e);
-					// We couldn't find the class.
-					return null;
-				} catch (NoClassDefFoundError e) {
-					logger.trace("NotesContext throwed an exception", e);
-					// We couldn't access the class.
-					return null;
 				} catch (Exception e) {
-					logger.trace("Unhandled error looking for the NotesContext session", e);
+					trace("Unhandled error looking for the NotesContext session", e);
 					return null;
 				}
 			}
@@ -168,21 +415,16 @@ public class DominoRunner {
 				try {
 					// This classloader is not available in Wink. 
 					// Wink servlets replaces classloaders during runtime. 
-					ClassLoader cl = Thread.currentThread().getContextClassLoader();
-					Class<?> clazz = cl.loadClass("com.ibm.domino.osgi.core.context.ContextInfo");
-					Method m1 = clazz.getDeclaredMethod("getUserSession", new Class[0]);
+					Method[] methods = getContextInfoMethods(Thread.currentThread().getContextClassLoader());
 					
-					return (Session) m1.invoke(null, new Object[0]);
-
-				} catch (ClassNotFoundException e) {
-					logger.trace("ContextInfo class not found");
-					// We couldn't find the class.
-				} catch (NoClassDefFoundError e) {
-					logger.trace("ContextInfo throwed an exception");
-					// We couldn't access the class.
-					return null;
+					if(methods == NOT_AVAILABLE) {
+						return null;
+					}
+					
+					return (Session) methods[0].invoke(null, new Object[0]);
+
 				} catch (Throwable t) {
-					logger.trace("Unhandled error looking for the ContextInfo session", t);
+					trace("Unhandled error looking for the ContextInfo session", t);
 				}
 				return null;
 			}
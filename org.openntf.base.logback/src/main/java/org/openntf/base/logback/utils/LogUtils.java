@@ -16,9 +16,6 @@
  */
 package org.openntf.base.logback.utils;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.StringTokenizer;
 import java.util.Vector;
 
 public class LogUtils {
@@ -26,14 +23,7 @@ public class LogUtils {
 	public static String getStackTrace(Throwable ee) {
 		if(ee==null) return "";
 		
-		try {
-			StringWriter sw = new StringWriter();
-			ee.printStackTrace(new PrintWriter(sw));
-			return sw.toString();
-		} catch (Exception e) {
-		}
-
-		return "";
+		return StackTraceRenderer.getDefault().render(ee);
 	}
 
 	public static Vector<String> getStackTraceVector(Throwable ee) {
@@ -41,19 +31,10 @@ public class LogUtils {
 	}
 
 	public static Vector<String> getStackTraceVector(Throwable ee, int skip) {
-		Vector<String> v = new Vector<String>(32);
-		try {
-			StringTokenizer st = new StringTokenizer(getStackTrace(ee), "\n");
-			int count = 0;
-			while (st.hasMoreTokens()) {
-				if (skip <= count++) {
-					v.addElement(st.nextToken().trim());
-				} else {
-					st.nextToken();
-				}
-			}
-	
-		} catch (Exception e) {
+		Vector<String> v = StackTraceRenderer.getDefault().renderLines(ee);
+
+		if(skip > 0) {
+			v.subList(0, Math.min(skip, v.size())).clear();
 		}
 	
 		return v;
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread guard against reentrant logging. Appenders enter the guard before processing an event. Events 
+ * logged while the guard is active (e.g. from Domino calls inside an appender) are counted and dropped, so 
+ * they do not fan out into the pipeline again.
+ * 
+ * The depth counter is allocated once per thread.
+ *
+ */
+public class ReentrancyGuard {
+
+	private static final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	private static final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * Enters the guard. Each successful call should be paired with {@link #exit()} in a finally block.
+	 * 
+	 * @return false if the thread is already inside the guard. The event is counted as dropped.
+	 */
+	public static boolean enter() {
+		int[] current = depth.get();
+
+		if(current[0] > 0) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+
+		current[0]++;
+		return true;
+	}
+
+	public static void exit() {
+		int[] current = depth.get();
+
+		if(current[0] > 0) {
+			current[0]--;
+		}
+	}
+
+	/**
+	 * Marks an internal thread (e.g. a writer thread) as guarded for its lifetime.
+	 */
+	public static void guardThread() {
+		depth.get()[0] = 1;
+	}
+
+	/**
+	 * @return true if the current thread is inside the guard.
+	 */
+	public static boolean isActive() {
+		return depth.get()[0] > 0;
+	}
+
+	/**
+	 * @return the number of reentrant events dropped so far.
+	 */
+	public static long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Counts an event dropped by the caller.
+	 * 
+	 * @return the number of reentrant events dropped so far.
+	 */
+	public static long countDropped() {
+		return droppedCount.incrementAndGet();
+	}
+
+}
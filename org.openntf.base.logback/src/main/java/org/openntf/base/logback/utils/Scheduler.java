@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.utils;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single daemon thread for periodic housekeeping tasks of XLogback components. Tasks should be short and should
+ * not block.
+ *
+ */
+public class Scheduler {
+
+	private static ScheduledExecutorService executor;
+
+	private static synchronized ScheduledExecutorService getExecutor() {
+		if(executor == null) {
+			executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "XLogback Scheduler");
+					thread.setDaemon(true);
+					// Don't keep the classloader of the first caller (e.g. an NSF) alive.
+					thread.setContextClassLoader(Scheduler.class.getClassLoader());
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Runs the task periodically. Exceptions are caught, so the task will not be cancelled silently.
+	 * 
+	 * @return handle to cancel the task.
+	 */
+	public static ScheduledFuture<?> schedule(final Runnable task, long period) {
+		return getExecutor().scheduleWithFixedDelay(safeTask(task), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs the task once after the delay.
+	 * 
+	 * @return handle to cancel the task.
+	 */
+	public static ScheduledFuture<?> scheduleOnce(final Runnable task, long delay) {
+		return getExecutor().schedule(safeTask(task), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static Runnable safeTask(final Runnable task) {
+		return new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch(Throwable t) {
+					System.err.println("XLogback scheduled task failed: " + t.getMessage());
+				}
+			}
+		};
+	}
+
+	public static synchronized void shutdown() {
+		if(executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.utils;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lotus.domino.NotesFactory;
+import lotus.domino.NotesThread;
+import lotus.domino.Session;
+
+import org.openntf.base.logback.utils.DominoRunner.SessionRoutine;
+
+/**
+ * Keeps a trusted session alive on a pinned thread and runs routines with it.
+ * 
+ * The thread is initialized with NotesThread once and the session is reused across calls. Before each call, 
+ * the session is checked and recreated if it's not valid anymore. If the lease is not used for the idle 
+ * timeout, the session is recycled and the thread terminates. The next call starts over.
+ *
+ */
+public class SessionLease implements Runnable {
+
+	private static final long CALL_TIMEOUT = 30000L;
+
+	private final String threadName;
+	private final long idleTimeout;
+
+	private final BlockingQueue<LeaseTask<?>> tasks = new LinkedBlockingQueue<LeaseTask<?>>();
+	private final Object lock = new Object();
+
+	private volatile Thread leaseThread;
+	private volatile boolean stopped = false;
+
+	// Owned by the lease thread
+	private Session session;
+
+	public SessionLease(long idleTimeout) {
+		this("XLogback Session Lease", idleTimeout);
+	}
+
+	public SessionLease(String threadName, long idleTimeout) {
+		this.threadName = threadName;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Runs the routine with the leased session. The caller waits for the result.
+	 */
+	public <T> T run(SessionRoutine<T> routine) {
+		if(Thread.currentThread() == leaseThread) {
+			// Nested call from a routine.
+			return runInline(routine);
+		}
+
+		LeaseTask<T> task = new LeaseTask<T>(routine);
+
+		synchronized(lock) {
+			if(stopped) {
+				return routine.fallback();
+			}
+
+			tasks.offer(task);
+
+			if(leaseThread == null) {
+				Thread thread = new Thread(this, threadName);
+				thread.setDaemon(true);
+				leaseThread = thread;
+				thread.start();
+			}
+		}
+
+		try {
+			try {
+				return task.get(CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				if(task.withdraw()) {
+					return routine.fallback();
+				}
+
+				// Already running. The routine may work on the state of the caller, so we can't leave before it ends.
+				return task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			return routine.onException(e.getCause());
+		} catch (CancellationException e) {
+			// Lease has been terminated.
+		}
+
+		return routine.fallback();
+	}
+
+	private <T> T runInline(SessionRoutine<T> routine) {
+		long started = System.nanoTime();
+		Session current = getSession();
+
+		DominoRunner.recordPath(DominoRunner.SessionPath.LEASE, started, current != null);
+
+		if(current == null) {
+			return routine.fallback();
+		}
+
+		try {
+			return routine.doRun(current);
+		} catch(Throwable t) {
+			return routine.onException(t);
+		}
+	}
+
+	/**
+	 * Health check for the session. Creates a new one if needed.
+	 */
+	private Session getSession() {
+		if(session != null) {
+			boolean valid = false;
+
+			try {
+				valid = session.isValid();
+			} catch(Throwable t) {
+				// Recycled or broken.
+			}
+
+			if(valid) {
+				return session;
+			}
+
+			Utils.recycleObject(session);
+			session = null;
+		}
+
+		try {
+			session = NotesFactory.createTrustedSession();
+		} catch (Throwable t) {
+			session = null;
+		}
+
+		return session;
+	}
+
+	@Override
+	public void run() {
+		boolean initialized = false;
+
+		try {
+			NotesThread.sinitThread();
+			initialized = true;
+
+			while(true) {
+				LeaseTask<?> task = tasks.poll(idleTimeout, TimeUnit.MILLISECONDS);
+
+				if(task == null) {
+					synchronized(lock) {
+						if(stopped) {
+							break;
+						}
+						if(tasks.isEmpty()) {
+							// Tasks offered from now on will start a new thread.
+							leaseThread = null;
+							break;
+						}
+					}
+					continue;
+				}
+
+				task.run();
+			}
+		} catch (InterruptedException e) {
+			// Stopped.
+		} catch (Throwable t) {
+			// Unable to initialize the thread. Waiting callers will fall back.
+		} finally {
+			Utils.recycleObject(session);
+			session = null;
+
+			if(initialized) {
+				NotesThread.stermThread();
+			}
+
+			synchronized(lock) {
+				// After an idle exit, the queue belongs to the next thread.
+				if(leaseThread == Thread.currentThread()) {
+					leaseThread = null;
+
+					// Anything left will fall back.
+					LeaseTask<?> task;
+					while((task = tasks.poll()) != null) {
+						task.withdraw();
+					}
+				}
+			}
+		}
+	}
+
+	public boolean isActive() {
+		return leaseThread != null;
+	}
+
+	/**
+	 * Recycles the session and terminates the thread.
+	 */
+	public void stop() {
+		Thread thread;
+
+		synchronized(lock) {
+			stopped = true;
+			thread = leaseThread;
+		}
+
+		if(thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	private class LeaseTask<T> extends FutureTask<T> {
+
+		// Either the lease thread runs the task or the caller withdraws it, never both.
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+		public LeaseTask(final SessionRoutine<T> routine) {
+			super(new Callable<T>() {
+				// The routine keeps the guard state of the caller.
+				private final boolean guarded = ReentrancyGuard.isActive();
+
+				@Override
+				public T call() throws Exception {
+					if(! guarded) {
+						return runInline(routine);
+					}
+
+					ReentrancyGuard.enter();
+					try {
+						return runInline(routine);
+					} finally {
+						ReentrancyGuard.exit();
+					}
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			if(claimed.compareAndSet(false, true)) {
+				super.run();
+			}
+		}
+
+		/**
+		 * @return true if the task has not been started and will not be.
+		 */
+		public boolean withdraw() {
+			if(claimed.compareAndSet(false, true)) {
+				cancel(false);
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders stack traces by walking the frames of a throwable and its causes.
+ * 
+ * - Frames beyond the depth limit are cut.
+ * - Consecutive frames in a folded package are collapsed after the first one.
+ * - Frames in common with the enclosing trace are elided for causes.
+ * 
+ * Rendered frame blocks are cached by the fingerprint of their frames, so repeated errors do not render frames
+ * again.
+ *
+ */
+public class StackTraceRenderer {
+
+	public static final int DEFAULT_MAX_DEPTH = 100;
+	public static final String DEFAULT_FOLDED_PACKAGES = "com.ibm.xsp.,com.ibm.domino.,com.ibm.designer.,lotus.domino.,sun.reflect.";
+
+	private static final int MAX_CAUSES = 20;
+	private static final int CACHE_SIZE = 256;
+
+	private static volatile StackTraceRenderer defaultInstance = new StackTraceRenderer(DEFAULT_MAX_DEPTH, DEFAULT_FOLDED_PACKAGES);
+
+	private final int maxDepth;
+	private final String[] foldedPackages;
+
+	private final Map<Long, String[]> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Receives rendered lines. Frame lines are given without indentation.
+	 */
+	public static abstract class LineVisitor {
+		public abstract void header(String line, boolean cause);
+		public abstract void frame(String line);
+	}
+
+	/**
+	 * @param maxDepth maximum number of frames for each throwable, 0 for unlimited.
+	 * @param foldedPackages comma separated package prefixes.
+	 */
+	public StackTraceRenderer(int maxDepth, String foldedPackages) {
+		this.maxDepth = maxDepth;
+		this.foldedPackages = toPrefixes(foldedPackages);
+
+		this.cache = new LinkedHashMap<Long, String[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, String[]> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+	}
+
+	public static StackTraceRenderer getDefault() {
+		return defaultInstance;
+	}
+
+	public static void setDefault(StackTraceRenderer renderer) {
+		defaultInstance = renderer;
+	}
+
+	private static String[] toPrefixes(String packages) {
+		List<String> prefixes = new ArrayList<String>();
+
+		if(packages != null) {
+			for(String prefix : packages.split(",")) {
+				prefix = prefix.trim();
+				if(prefix.length() > 0) {
+					prefixes.add(prefix);
+				}
+			}
+		}
+
+		return prefixes.toArray(new String[prefixes.size()]);
+	}
+
+	public void visit(Throwable t, LineVisitor visitor) {
+		StackTraceElement[] enclosing = null;
+		Throwable current = t;
+
+		for(int i=0; current != null && i < MAX_CAUSES; i++) {
+			StackTraceElement[] frames = current.getStackTrace();
+			int common = (enclosing == null) ? 0 : countCommonFrames(frames, enclosing);
+
+			visitor.header((i == 0 ? "" : "Caused by: ") + describe(current), i > 0);
+
+			for(String line : getFrameLines(frames, common)) {
+				visitor.frame(line);
+			}
+
+			enclosing = frames;
+			current = (current.getCause() == current) ? null : current.getCause();
+		}
+	}
+
+	/**
+	 * @return lines without indentation, as OpenLog expects.
+	 */
+	public Vector<String> renderLines(Throwable t) {
+		final Vector<String> lines = new Vector<String>(32);
+
+		if(t != null) {
+			visit(t, new LineVisitor() {
+				public void header(String line, boolean cause) {
+					lines.add(line);
+				}
+
+				public void frame(String line) {
+					lines.add(line);
+				}
+			});
+		}
+
+		return lines;
+	}
+
+	/**
+	 * @return stack trace with indented frames and a line separator after each line.
+	 */
+	public String render(Throwable t) {
+		final StringBuilder sb = new StringBuilder(1024);
+		final String separator = System.getProperty("line.separator");
+
+		if(t != null) {
+			visit(t, new LineVisitor() {
+				public void header(String line, boolean cause) {
+					sb.append(line).append(separator);
+				}
+
+				public void frame(String line) {
+					sb.append('\t').append(line).append(separator);
+				}
+			});
+		}
+
+		return sb.toString();
+	}
+
+	private String describe(Throwable t) {
+		try {
+			return t.toString();
+		} catch(Throwable e) {
+			// Broken toString implementations...
+			return t.getClass().getName();
+		}
+	}
+
+	private String[] getFrameLines(StackTraceElement[] frames, int common) {
+		int count = frames.length - common;
+		Long key = Long.valueOf(ThrowableFingerprint.compute(frames, frames.length) * 31 + common);
+
+		String[] lines;
+
+		synchronized(cache) {
+			lines = cache.get(key);
+		}
+
+		if(lines != null) {
+			hits.incrementAndGet();
+			return lines;
+		}
+
+		misses.incrementAndGet();
+
+		List<String> result = new ArrayList<String>(Math.min(count, 64) + 2);
+		int limit = (maxDepth > 0) ? Math.min(count, maxDepth) : count;
+
+		int i = 0;
+		while(i < limit) {
+			result.add("at " + frames[i]);
+
+			String folded = getFoldedPackage(frames[i].getClassName());
+			if(folded != null) {
+				int j = i + 1;
+				while(j < limit && frames[j].getClassName().startsWith(folded)) {
+					j++;
+				}
+
+				// Folding a single frame does not save anything.
+				int hidden = j - i - 1;
+				if(hidden > 1) {
+					result.add("... " + hidden + " frames in " + folded + "*");
+					i = j;
+					continue;
+				}
+			}
+
+			i++;
+		}
+
+		if(limit < count) {
+			result.add("... " + (count - limit) + " frames omitted");
+		}
+
+		if(common > 0) {
+			result.add("... " + common + " more");
+		}
+
+		lines = result.toArray(new String[result.size()]);
+
+		synchronized(cache) {
+			cache.put(key, lines);
+		}
+
+		return lines;
+	}
+
+	private String getFoldedPackage(String className) {
+		for(String prefix : foldedPackages) {
+			if(className.startsWith(prefix)) {
+				return prefix;
+			}
+		}
+		return null;
+	}
+
+	private static int countCommonFrames(StackTraceElement[] frames, StackTraceElement[] enclosing) {
+		int m = frames.length - 1;
+		int n = enclosing.length - 1;
+
+		while(m >= 0 && n >= 0 && frames[m].equals(enclosing[n])) {
+			m--;
+			n--;
+		}
+
+		return frames.length - 1 - m;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
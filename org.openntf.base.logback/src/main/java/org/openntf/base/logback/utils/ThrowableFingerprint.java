@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openntf.base.logback.utils;
+
+/**
+ * Computes a 64-bit fingerprint for a throwable. The fingerprint covers the marker, the types in the cause chain
+ * and the top frames of the throwable. Messages are ignored since they usually contain variable parts.
+ *
+ */
+public class ThrowableFingerprint {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private static final int MAX_CAUSES = 10;
+
+	public static long compute(Throwable t, String marker, int depth) {
+		long hash = FNV_OFFSET;
+
+		hash = hash(hash, marker);
+
+		if(t == null) {
+			return hash;
+		}
+
+		StackTraceElement[] frames = t.getStackTrace();
+		hash = hash(hash, frames, Math.min(depth, frames.length));
+
+		Throwable cause = t;
+		for(int i=0; cause != null && i < MAX_CAUSES; i++) {
+			hash = hash(hash, cause.getClass().getName());
+			cause = (cause.getCause() == cause) ? null : cause.getCause();
+		}
+
+		return hash;
+	}
+
+	/**
+	 * @return fingerprint of the first count frames.
+	 */
+	public static long compute(StackTraceElement[] frames, int count) {
+		return hash(FNV_OFFSET, frames, count);
+	}
+
+	private static long hash(long hash, StackTraceElement[] frames, int count) {
+		for(int i=0; i<count; i++) {
+			hash = hash(hash, frames[i].getClassName());
+			hash = hash(hash, frames[i].getMethodName());
+			hash = hash * FNV_PRIME ^ frames[i].getLineNumber();
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, String value) {
+		if(value == null) {
+			return hash * FNV_PRIME;
+		}
+
+		for(int i=0; i<value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= FNV_PRIME;
+		}
+
+		// Separator
+		return (hash ^ 0xff) * FNV_PRIME;
+	}
+
+}
@@ -40,12 +40,24 @@ public class Utils {
             return false;
         }
         
-        try {
-        	Integer.parseInt(value);
-        	return true;
-        } catch (Throwable t) {
+        // No exceptions here, this is called for every setting.
+        int start = (value.charAt(0) == '-') ? 1 : 0;
+        int length = value.length();
+
+        if (start == length || length - start > 10) {
         	return false;
         }
+
+        long result = 0;
+        for (int i = start; i < length; i++) {
+        	char c = value.charAt(i);
+        	if (c < '0' || c > '9') {
+        		return false;
+        	}
+        	result = result * 10 + (c - '0');
+        }
+
+        return (value.charAt(0) == '-') ? -result >= Integer.MIN_VALUE : result <= Integer.MAX_VALUE;
     }
 
     /**